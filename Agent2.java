@@ -27,26 +27,84 @@ public class Agent2 {
         try (BufferedReader reader = new BufferedReader(new FileReader(this.name+"/"+this.step+".txt"))) {
             String line;
             line = reader.readLine();
-            String[] parts = line.split(","); // Split line into parts
-                // Process the parts array as needed
-            for (String part : parts) {
-                int number = Integer.parseInt(part);
-                counts.add(number);
-            }
-            line = reader.readLine();
-            parts = line.split(","); // Split line into parts
-                // Process the parts array as needed
-            for (String part : parts) {
-                owners.add(part);
+            String[] parts;
+            if (line.startsWith("delta")) {
+                //only the nodes that changed, on top of the view saved last turn
+                this.read_view();
+                int changes = Integer.parseInt(line.split(" ")[1]);
+                for (int c = 0; c < changes; c++) {
+                    parts = reader.readLine().split(",");
+                    int index = Integer.parseInt(parts[0]);
+                    counts.set(index, Integer.parseInt(parts[1]));
+                    owners.set(index, parts[2]);
+                }
+            } else if (line.startsWith("windows")) {
+                //only the stretches of the ring we can see, everything else is unseen
+                parts = line.split(" ");
+                int windows = Integer.parseInt(parts[1]);
+                int size = Integer.parseInt(parts[2]);
+                counts.clear();
+                owners.clear();
+                for (int i = 0; i < size; i++) {
+                    counts.add(-1);
+                    owners.add("U");
+                }
+                for (int w = 0; w < windows; w++) {
+                    parts = reader.readLine().split(",");
+                    int offset = Integer.parseInt(parts[0]);
+                    String[] wcounts = reader.readLine().split(",");
+                    String[] wowners = reader.readLine().split(",");
+                    for (int j = 0; j < wcounts.length; j++) {
+                        counts.set(offset + j, Integer.parseInt(wcounts[j]));
+                        owners.set(offset + j, wowners[j]);
+                    }
+                }
+            } else {
+                counts.clear(); //main reads the state twice
+                owners.clear();
+                parts = line.split(","); // Split line into parts
+                    // Process the parts array as needed
+                for (String part : parts) {
+                    int number = Integer.parseInt(part);
+                    counts.add(number);
+                }
+                line = reader.readLine();
+                parts = line.split(","); // Split line into parts
+                    // Process the parts array as needed
+                for (String part : parts) {
+                    owners.add(part);
+                }
             }
             line = reader.readLine();
             this.newFernies = Integer.parseInt(line);
+            this.save_view();
 
         } catch (IOException e) {
             System.err.println("Error reading the file: " + e.getMessage());
         }
     }
 
+    //The whole view is kept in view.txt between turns, for state files that only hold changes.
+    private void read_view() throws IOException {
+        this.counts.clear();
+        this.owners.clear();
+        try (BufferedReader reader = new BufferedReader(new FileReader(this.name+"/view.txt"))) {
+            for (String part : reader.readLine().split(",")) {
+                counts.add(Integer.parseInt(part));
+            }
+            for (String part : reader.readLine().split(",")) {
+                owners.add(part);
+            }
+        }
+    }
+
+    private void save_view() throws IOException {
+        try (FileWriter writer = new FileWriter(this.name+"/view.txt")) {
+            writer.write(String.join(",", this.counts.stream().map(String::valueOf).toArray(String[]::new)));
+            writer.write("\n" + String.join(",", this.owners));
+        }
+    }
+
     public void update_state() {
         //make moves and save them to a/move.txt
         //move.txt should be a simple list of where new units are being placed and removed from
@@ -0,0 +1,408 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+public class AgentHost {
+    //Runs Java agents inside the engine's JVM instead of starting a new one every turn. Each turn an agent's main
+    //gets the same arguments as on the command line, in a class loader of its own that sees the JDK but nothing
+    //of the engine, so its statics start fresh like in a new process while the JDK code it uses stays compiled.
+    //Class files are read once and kept until they change on disk.
+    //
+    //Calls to System.exit in agent classes are rewritten to AgentHost.exit, which ends only the agent's main.
+    //Runtime.exit and Runtime.halt are not caught. Agents already run in the engine's working directory, as a
+    //process started by commandAgent does, so their relative paths mean the same thing here.
+    public long time_limit_ms;    //a main still running after this long is interrupted, and the agent runs as a process until it stops, 0 for no limit
+    public boolean reuse_loaders; //keep each agent's classes between turns, statics and all, so its own code stays compiled too
+
+    private final HashMap<String, Hosted> hosted = new HashMap<>();
+    private final ExecutorService runners = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "AgentHost-main");
+        t.setDaemon(true);
+        return t;
+    });
+
+    //System.out and System.err are swapped once for streams that send agent threads' output to that agent's
+    //buffer and everyone else's to where it went before.
+    private static final InheritableThreadLocal<OutputStream[]> capture = new InheritableThreadLocal<>();
+    private static PrintStream engine_out;
+    private static PrintStream engine_err;
+
+    public AgentHost(long time_limit_ms) {
+        this.time_limit_ms = time_limit_ms;
+        installStreams();
+    }
+
+    private static synchronized void installStreams() {
+        if (engine_out != null) {
+            return;
+        }
+        engine_out = System.out;
+        engine_err = System.err;
+        System.setOut(new PrintStream(new Routed(engine_out, 0), true));
+        System.setErr(new PrintStream(new Routed(engine_err, 1), true));
+    }
+
+    //Whether this agent can run here: a class or jar started with java, with no timed out main still going.
+    public boolean canHost(Agent_Details agent) {
+        String lang = agent.getLang();
+        if (lang.equals("java -jar")) {
+            return this.usable(agent);
+        }
+        return lang.equals("java") && !agent.getFileName().endsWith(".java") && this.usable(agent);
+    }
+
+    private boolean usable(Agent_Details agent) {
+        Hosted h = this.hosted.get(agent.locname);
+        return h == null || !h.running;
+    }
+
+    //Runs one turn of agent and returns its exit code: what it gave System.exit, 0 if main returned, 1 if main
+    //threw or couldn't be started and -1 if it ran out of time. Its output goes to output like a process's would.
+    public int run(Agent_Details agent, int step, AgentOutput output) throws InterruptedException {
+        Hosted h = this.hosted.computeIfAbsent(agent.locname, name -> new Hosted());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        OutputStream[] streams = {new Capped(out), new Capped(err)};
+        String[] args = {Integer.toString(step), agent.locname};
+        h.running = true;
+        Future<Integer> result = this.runners.submit(() -> {
+            capture.set(streams);
+            try {
+                return this.callMain(h, agent, args);
+            } finally {
+                capture.remove();
+                h.running = false;
+            }
+        });
+        int code;
+        try {
+            code = this.time_limit_ms > 0 ? result.get(this.time_limit_ms, TimeUnit.MILLISECONDS) : result.get();
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            h.loader = null;
+            EventLog.error(EventLog.AGENT, agent.locname + " ran past " + this.time_limit_ms + " ms, running it as a process until that turn gives up");
+            code = -1;
+        } catch (ExecutionException e) {
+            code = 1;
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+        }
+        this.forward(output, out, step, "");
+        this.forward(output, err, step, " err");
+        return code;
+    }
+
+    private int callMain(Hosted h, Agent_Details agent, String[] args) {
+        Method main;
+        try {
+            main = this.loaderFor(h, agent).mainMethod();
+        } catch (IOException | ReflectiveOperationException e) {
+            System.err.println("Could not load " + agent.getFileName() + ": " + e);
+            return 1;
+        }
+        try {
+            main.invoke(null, (Object) args);
+            return 0;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exit) {
+                return ((Exit) e.getCause()).code;
+            }
+            System.err.print("Exception in thread \"main\" ");
+            e.getCause().printStackTrace();
+            return 1;
+        } catch (IllegalAccessException e) {
+            System.err.println("Could not run " + agent.getFileName() + ": " + e);
+            return 1;
+        }
+    }
+
+    private AgentLoader loaderFor(Hosted h, Agent_Details agent) throws IOException {
+        boolean jar = agent.getLang().equals("java -jar");
+        File source = new File(jar ? agent.getFileName() : agent.getFileName().replace('.', '/') + ".class");
+        if (h.source == null || !h.source.equals(source) || h.jar != jar || h.modified != source.lastModified()) {
+            //new or rebuilt agent, forget what was read of it
+            h.source = source;
+            h.jar = jar;
+            h.modified = source.lastModified();
+            h.classes = new HashMap<>();
+            h.loader = null;
+            h.main_class = jar ? mainClassOf(source) : agent.getFileName();
+        }
+        if (h.loader == null || !this.reuse_loaders) {
+            h.loader = new AgentLoader(h);
+        }
+        return h.loader;
+    }
+
+    private static String mainClassOf(File jar) throws IOException {
+        try (JarFile file = new JarFile(jar)) {
+            String main = file.getManifest() == null ? null : file.getManifest().getMainAttributes().getValue("Main-Class");
+            if (main == null) {
+                throw new IOException("no Main-Class in " + jar);
+            }
+            return main.trim();
+        }
+    }
+
+    private void forward(AgentOutput output, ByteArrayOutputStream bytes, int step, String tag) throws InterruptedException {
+        if (bytes.size() == 0) {
+            return;
+        }
+        try {
+            output.drain(new ByteArrayInputStream(bytes.toByteArray()), step, tag).get();
+        } catch (ExecutionException e) {
+            EventLog.debug(EventLog.AGENT, output.locname + " output could not be kept: " + e.getCause());
+        }
+    }
+
+    public void close() {
+        this.runners.shutdownNow();
+    }
+
+    //Stands in for System.exit in agent classes.
+    public static void exit(int code) {
+        throw new Exit(code);
+    }
+
+    static class Exit extends Error {
+        private static final long serialVersionUID = 1L;
+        final int code;
+
+        Exit(int code) {
+            super("System.exit(" + code + ")", null, false, false);
+            this.code = code;
+        }
+    }
+
+    //What is known about one agent's code.
+    private static class Hosted {
+        File source;
+        boolean jar;
+        long modified;
+        String main_class;
+        HashMap<String, byte[]> classes; //class name -> rewritten class file, null if there is no such class
+        AgentLoader loader;
+        volatile boolean running; //still true after a time out until that main gives up
+    }
+
+    private static class AgentLoader extends ClassLoader {
+        private final Hosted h;
+
+        AgentLoader(Hosted h) {
+            super("agent " + h.main_class, ClassLoader.getPlatformClassLoader());
+            this.h = h;
+        }
+
+        Method mainMethod() throws ReflectiveOperationException {
+            Method main = this.loadClass(this.h.main_class).getMethod("main", String[].class);
+            if (!Modifier.isStatic(main.getModifiers())) {
+                throw new NoSuchMethodException(this.h.main_class + ".main is not static");
+            }
+            return main;
+        }
+
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals("AgentHost")) {
+                return AgentHost.class; //the one engine class agents can see, for the rewritten System.exit
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes;
+            synchronized (this.h) {
+                if (!this.h.classes.containsKey(name)) {
+                    byte[] read;
+                    try {
+                        read = this.read(name.replace('.', '/') + ".class");
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                    this.h.classes.put(name, read == null ? null : rewriteExit(read));
+                }
+                bytes = this.h.classes.get(name);
+            }
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return this.defineClass(name, bytes, 0, bytes.length);
+        }
+
+        protected URL findResource(String name) {
+            try {
+                if (this.h.jar) {
+                    try (JarFile file = new JarFile(this.h.source)) {
+                        return file.getEntry(name) == null ? null : new URL("jar:" + this.h.source.toURI() + "!/" + name);
+                    }
+                }
+                File f = new File(name);
+                return f.isFile() ? f.toURI().toURL() : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        //A class file from the jar, or from the working directory, which is where java looks without a class path.
+        private byte[] read(String path) throws IOException {
+            if (this.h.jar) {
+                try (JarFile file = new JarFile(this.h.source)) {
+                    ZipEntry entry = file.getEntry(path);
+                    return entry == null ? null : file.getInputStream(entry).readAllBytes();
+                }
+            }
+            File f = new File(path);
+            return f.isFile() ? Files.readAllBytes(f.toPath()) : null;
+        }
+    }
+
+    //Points every java/lang/System.exit(I)V method reference in the class file's constant pool at AgentHost
+    //instead, by adding a Utf8 and a Class entry to the end of the pool. Nothing else in the file changes.
+    static byte[] rewriteExit(byte[] c) {
+        int count = u2(c, 8);
+        int[] at = new int[count]; //offset of each entry's tag
+        int p = 10;
+        for (int i = 1; i < count; i++) {
+            at[i] = p;
+            int tag = c[p] & 0xff;
+            switch (tag) {
+                case 1:
+                    p += 3 + u2(c, p + 1);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    p += 5;
+                    break;
+                case 5: case 6:
+                    p += 9;
+                    i++;
+                    break;
+                case 7: case 8: case 16: case 19: case 20:
+                    p += 3;
+                    break;
+                case 15:
+                    p += 4;
+                    break;
+                default:
+                    return c; //a pool this doesn't understand, leave the class alone
+            }
+        }
+        int end = p;
+        if (count + 2 > 0xffff) {
+            return c;
+        }
+        boolean found = false;
+        byte[] out = null;
+        for (int i = 1; i < count; i++) {
+            int e = at[i];
+            if (e == 0 || (c[e] & 0xff) != 10) {
+                continue;
+            }
+            int owner = at[u2(c, e + 1)];
+            int nat = at[u2(c, e + 3)];
+            if (utf8(c, at[u2(c, owner + 1)]).equals("java/lang/System")
+                    && utf8(c, at[u2(c, nat + 1)]).equals("exit")
+                    && utf8(c, at[u2(c, nat + 3)]).equals("(I)V")) {
+                if (out == null) {
+                    out = c.clone();
+                }
+                out[e + 1] = (byte) ((count + 1) >> 8);
+                out[e + 2] = (byte) (count + 1);
+                found = true;
+            }
+        }
+        if (!found) {
+            return c;
+        }
+        byte[] name = "AgentHost".getBytes(StandardCharsets.UTF_8);
+        byte[] added = new byte[3 + name.length + 3];
+        added[0] = 1;
+        added[1] = (byte) (name.length >> 8);
+        added[2] = (byte) name.length;
+        System.arraycopy(name, 0, added, 3, name.length);
+        added[3 + name.length] = 7;
+        added[4 + name.length] = (byte) (count >> 8);
+        added[5 + name.length] = (byte) count;
+        byte[] result = new byte[out.length + added.length];
+        System.arraycopy(out, 0, result, 0, end);
+        System.arraycopy(added, 0, result, end, added.length);
+        System.arraycopy(out, end, result, end + added.length, out.length - end);
+        result[8] = (byte) ((count + 2) >> 8);
+        result[9] = (byte) (count + 2);
+        return result;
+    }
+
+    private static int u2(byte[] c, int p) {
+        return ((c[p] & 0xff) << 8) | (c[p + 1] & 0xff);
+    }
+
+    //Plain ASCII names only, which is all this compares against.
+    private static String utf8(byte[] c, int p) {
+        return new String(c, p + 3, u2(c, p + 1), StandardCharsets.ISO_8859_1);
+    }
+
+    //Sends each write to the calling thread's capture, if it has one.
+    private static class Routed extends OutputStream {
+        private final OutputStream engine;
+        private final int which;
+
+        Routed(OutputStream engine, int which) {
+            this.engine = engine;
+            this.which = which;
+        }
+
+        private OutputStream target() {
+            OutputStream[] streams = capture.get();
+            return streams == null ? this.engine : streams[this.which];
+        }
+
+        public void write(int b) throws IOException {
+            this.target().write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.target().write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            this.target().flush();
+        }
+    }
+
+    //Keeps a little more than AgentOutput would take from a turn, and drops the rest.
+    private static class Capped extends OutputStream {
+        private final ByteArrayOutputStream into;
+
+        Capped(ByteArrayOutputStream into) {
+            this.into = into;
+        }
+
+        public void write(int b) {
+            if (this.into.size() <= AgentOutput.MAX_BYTES_PER_TURN) {
+                this.into.write(b);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) {
+            int room = (int) Math.max(0, AgentOutput.MAX_BYTES_PER_TURN + 1 - this.into.size());
+            this.into.write(b, off, Math.min(len, room));
+        }
+    }
+}
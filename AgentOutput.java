@@ -0,0 +1,182 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+public class AgentOutput {
+    //Captures what one agent prints during one match.
+    //Output is drained off the simulation thread as UTF-8 into a bounded ring of recent lines,
+    //long lines and chatty turns are cut off with a marker, and everything kept can be spooled to a gzip file.
+    public static final int MAX_LINES = 200; //lines kept in memory for the debug view
+    public static final int MAX_LINE_CHARS = 400;
+    public static final long MAX_BYTES_PER_TURN = 1 << 20; //beyond this the rest of the turn's output is discarded
+
+    private static final ExecutorService drainers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "AgentOutput-drain");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public final String locname;
+    private final String[] ring;
+    private int next;
+    private long total_lines;
+    private long discarded_bytes;
+    private Writer spool;
+
+    public AgentOutput(String locname, String spoolFile) {
+        this.locname = locname;
+        this.ring = new String[MAX_LINES];
+        this.next = 0;
+        this.total_lines = 0;
+        this.discarded_bytes = 0;
+        if (spoolFile != null) {
+            try {
+                File f = new File(spoolFile);
+                if (f.getParentFile() != null) {
+                    f.getParentFile().mkdirs();
+                }
+                this.spool = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(f)), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                EventLog.error(EventLog.AGENT, "Could not open agent output spool " + spoolFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    //Starts draining a process stream in the background. The caller waits on the returned future after the process exits.
+    public Future<?> drain(InputStream in, int step, String tag) {
+        return drainers.submit(() -> this.readStream(in, step, tag));
+    }
+
+    private void readStream(InputStream in, int step, String tag) {
+        byte[] buf = new byte[8192];
+        //raw bytes of the line so far, decoded as UTF-8 once it ends, so a character split between reads stays whole
+        byte[] line = new byte[4 * MAX_LINE_CHARS];
+        int length = 0;
+        boolean lineCut = false;
+        long bytes = 0;
+        try (InputStream stream = in) {
+            int n;
+            while ((n = stream.read(buf)) != -1) {
+                if (bytes >= MAX_BYTES_PER_TURN) {
+                    //keep reading so the agent never blocks on a full pipe, but drop everything
+                    this.discard(n);
+                    continue;
+                }
+                for (int i = 0; i < n; i++) {
+                    byte b = buf[i];
+                    bytes++;
+                    if (b == '\n') {
+                        this.append(step, tag, line, length, lineCut);
+                        length = 0;
+                        lineCut = false;
+                    } else if (b != '\r') {
+                        if (length < line.length) {
+                            line[length++] = b;
+                        } else {
+                            lineCut = true;
+                        }
+                    }
+                    if (bytes >= MAX_BYTES_PER_TURN) {
+                        this.discard(n - i - 1);
+                        break;
+                    }
+                }
+            }
+            if (length > 0) {
+                this.append(step, tag, line, length, lineCut);
+            }
+        } catch (IOException e) {
+            EventLog.error(EventLog.AGENT, this.locname + " output could not be read: " + e.getMessage());
+        }
+        if (bytes >= MAX_BYTES_PER_TURN) {
+            this.add("[" + step + tag + "] ... output truncated after " + MAX_BYTES_PER_TURN + " bytes");
+        }
+    }
+
+    private void append(int step, String tag, byte[] bytes, int length, boolean cut) {
+        if (cut) {
+            //the bytes stopped mid-line, don't let a half character at the end decode as garbage
+            length = wholeChars(bytes, length);
+        }
+        String line = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        if (line.length() > MAX_LINE_CHARS) {
+            int end = Character.isHighSurrogate(line.charAt(MAX_LINE_CHARS - 1)) ? MAX_LINE_CHARS - 1 : MAX_LINE_CHARS;
+            line = line.substring(0, end);
+            cut = true;
+        }
+        String s = "[" + step + tag + "] " + line + (cut ? " ...[line truncated]" : "");
+        this.add(s);
+        if (EventLog.on(EventLog.AGENT, EventLog.DEBUG)) {
+            EventLog.debug(EventLog.AGENT, this.locname + " " + s);
+        }
+    }
+
+    //Length of bytes[0, length) without a UTF-8 sequence left incomplete at the end.
+    private static int wholeChars(byte[] bytes, int length) {
+        int lead = length - 1;
+        while (lead >= 0 && length - lead < 4 && (bytes[lead] & 0xc0) == 0x80) {
+            lead--;
+        }
+        if (lead < 0) {
+            return length;
+        }
+        int b = bytes[lead] & 0xff;
+        int need = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+        return lead + need > length ? lead : length;
+    }
+
+    private synchronized void discard(int n) {
+        this.discarded_bytes += n;
+    }
+
+    private synchronized void add(String s) {
+        this.ring[this.next] = s;
+        this.next = (this.next + 1) % MAX_LINES;
+        this.total_lines++;
+        if (this.spool != null) {
+            try {
+                this.spool.write(s);
+                this.spool.write('\n');
+            } catch (IOException e) {
+                this.spool = null;
+                EventLog.error(EventLog.AGENT, "Stopped spooling " + this.locname + " output: " + e.getMessage());
+            }
+        }
+    }
+
+    //The last n lines, oldest first.
+    public synchronized List<String> recent(int n) {
+        int have = (int) Math.min(this.total_lines, MAX_LINES);
+        n = Math.min(n, have);
+        List<String> out = new ArrayList<>(n);
+        for (int i = n; i > 0; i--) {
+            out.add(this.ring[(this.next - i + MAX_LINES) % MAX_LINES]);
+        }
+        return out;
+    }
+
+    public synchronized long getDiscardedBytes() {
+        return this.discarded_bytes;
+    }
+
+    public synchronized void close() {
+        if (this.spool != null) {
+            try {
+                this.spool.close();
+            } catch (IOException e) {
+                EventLog.error(EventLog.AGENT, "Could not close " + this.locname + " output spool: " + e.getMessage());
+            }
+            this.spool = null;
+        }
+    }
+}
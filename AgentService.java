@@ -0,0 +1,242 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AgentService {
+    //A connection to an agent that runs as one long-lived process serving many matches at once, listening on a
+    //Unix domain socket. Agents with lang "socket" have the socket's path as their file name. Every match in this
+    //JVM that uses the same socket shares one connection: requests are written as they come and answers are
+    //matched up by id in whatever order the service sends them.
+    //
+    //Both ways a frame is <int length> then length bytes.
+    //  request:  long id, long match, int step, int deadline ms, short length and UTF-8 agent name, then the state file's bytes
+    //  response: long id, byte status, then the move file's bytes (empty unless status is OK)
+    //The service should answer every request, with EXPIRED for one it didn't get to before its deadline, since a
+    //request counts against max_in_flight until its answer comes back even if the match stopped waiting.
+    public static final byte OK = 0;
+    public static final byte EXPIRED = 1;
+    public static final byte FAILED = 2;
+    public static final int MAX_FRAME = 64 << 20;
+
+    private static final ConcurrentHashMap<Path, AgentService> open = new ConcurrentHashMap<>();
+
+    public final Path socket;
+    public final int max_in_flight;
+    private final Semaphore in_flight;
+    private final ConcurrentHashMap<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong next_id = new AtomicLong();
+    private SocketChannel channel;
+
+    private AgentService(Path socket, int max_in_flight) {
+        this.socket = socket;
+        this.max_in_flight = max_in_flight;
+        this.in_flight = new Semaphore(max_in_flight);
+    }
+
+    //The shared connection to the service at socket, made on first use.
+    public static AgentService connect(Path socket) {
+        return open.computeIfAbsent(socket.toAbsolutePath(), path -> new AgentService(path, Integer.getInteger("ringwars.service_inflight", 64)));
+    }
+
+    //Sends one turn's state and waits for the moves, for at most deadline_ms in all, including any wait for room
+    //under max_in_flight.
+    public byte[] call(long match, int step, String agent, byte[] state, long deadline_ms) throws IOException, InterruptedException, TimeoutException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline_ms);
+        if (!this.in_flight.tryAcquire(deadline_ms, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(this.max_in_flight + " requests to " + this.socket + " already waiting");
+        }
+        long id = this.next_id.incrementAndGet();
+        CompletableFuture<byte[]> answer = new CompletableFuture<>();
+        this.pending.put(id, answer);
+        try {
+            this.send(id, match, step, agent, state, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime())));
+        } catch (IOException e) {
+            if (this.pending.remove(id) != null) {
+                this.in_flight.release();
+            }
+            throw e;
+        }
+        try {
+            return answer.get(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new TimeoutException("no answer from " + this.socket + " within " + deadline_ms + " ms");
+        }
+    }
+
+    private synchronized void send(long id, long match, int step, String agent, byte[] state, long deadline_ms) throws IOException {
+        if (this.channel == null) {
+            this.open();
+        }
+        byte[] name = agent.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + 26 + name.length + state.length);
+        frame.putInt(26 + name.length + state.length);
+        frame.putLong(id);
+        frame.putLong(match);
+        frame.putInt(step);
+        frame.putInt((int) Math.min(Integer.MAX_VALUE, deadline_ms));
+        frame.putShort((short) name.length);
+        frame.put(name);
+        frame.put(state);
+        writeFully(this.channel, frame.flip());
+    }
+
+    private void open() throws IOException {
+        SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        ch.connect(UnixDomainSocketAddress.of(this.socket));
+        this.channel = ch;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+        Thread reader = new Thread(() -> this.readAnswers(ch, in), "AgentService-" + this.socket.getFileName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAnswers(SocketChannel ch, DataInputStream in) {
+        IOException failure;
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < 9 || length > MAX_FRAME) {
+                    throw new IOException("bad frame length " + length + " from " + this.socket);
+                }
+                long id = in.readLong();
+                byte status = in.readByte();
+                byte[] moves = new byte[length - 9];
+                in.readFully(moves);
+                CompletableFuture<byte[]> answer = this.pending.remove(id);
+                if (answer == null) {
+                    continue; //not ours, or already answered
+                }
+                this.in_flight.release();
+                if (status == OK) {
+                    answer.complete(moves);
+                } else {
+                    answer.completeExceptionally(new IOException(status == EXPIRED ? "service let the request expire" : "service failed the request"));
+                }
+            }
+        } catch (EOFException e) {
+            failure = new IOException("service at " + this.socket + " closed the connection");
+        } catch (IOException e) {
+            failure = e;
+        }
+        //everything still waiting on this connection fails, and the next call connects again
+        synchronized (this) {
+            if (this.channel == ch) {
+                this.channel = null;
+            }
+        }
+        try {
+            ch.close();
+        } catch (IOException e) {
+            //already gone
+        }
+        for (Long id : this.pending.keySet()) {
+            CompletableFuture<byte[]> answer = this.pending.remove(id);
+            if (answer != null) {
+                this.in_flight.release();
+                answer.completeExceptionally(failure);
+            }
+        }
+    }
+
+    //Straight to the channel: a stream from Channels.newOutputStream would wait on the same lock as the thread
+    //blocked reading answers.
+    private static void writeFully(SocketChannel ch, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            ch.write(frame);
+        }
+    }
+
+    //What a service does with one request, called on one of serve's threads.
+    public interface Handler {
+        byte[] moves(long match, int step, String agent, byte[] state) throws Exception;
+    }
+
+    //Runs a service on socket until the thread is interrupted, handing requests to handler on threads threads
+    //and answering each as soon as it is done. A request still queued at its deadline is answered EXPIRED.
+    public static void serve(Path socket, int threads, Handler handler) throws IOException {
+        Files.deleteIfExists(socket);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "AgentService-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            while (!Thread.currentThread().isInterrupted()) {
+                SocketChannel ch = server.accept();
+                Thread conn = new Thread(() -> serveConnection(ch, workers, handler), "AgentService-conn");
+                conn.setDaemon(true);
+                conn.start();
+            }
+        } finally {
+            workers.shutdownNow();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private static void serveConnection(SocketChannel ch, ExecutorService workers, Handler handler) {
+        try (ch) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+            while (true) {
+                int length = in.readInt();
+                if (length < 26 || length > MAX_FRAME) {
+                    return;
+                }
+                long id = in.readLong();
+                long match = in.readLong();
+                int step = in.readInt();
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(in.readInt());
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                byte[] state = new byte[length - 26 - name.length];
+                in.readFully(state);
+                String agent = new String(name, StandardCharsets.UTF_8);
+                workers.execute(() -> {
+                    byte status = OK;
+                    byte[] moves = new byte[0];
+                    if (System.nanoTime() - end > 0) {
+                        status = EXPIRED;
+                    } else {
+                        try {
+                            moves = handler.moves(match, step, agent, state);
+                        } catch (Exception e) {
+                            status = FAILED;
+                        }
+                    }
+                    try {
+                        ByteBuffer frame = ByteBuffer.allocate(4 + 9 + moves.length);
+                        frame.putInt(9 + moves.length).putLong(id).put(status).put(moves);
+                        synchronized (ch) {
+                            writeFully(ch, frame.flip());
+                        }
+                    } catch (IOException e) {
+                        //the engine went away, the read side will notice
+                    }
+                });
+            }
+        } catch (IOException e) {
+            //connection closed
+        }
+    }
+}
@@ -6,6 +6,8 @@ public class Agent_Details {
     public String lang;
     public Color color;
     public int myStart; //The global location which the agent considers 0.
+    public boolean delta_state; //after its first state file the agent is only sent the nodes that changed
+    public boolean sparse_state; //state files hold only the windows of the ring the agent can see
     public Agent_Details(String filename, String locname, String lang, Color color) {
         this.filename = filename;
         this.locname = locname;
@@ -0,0 +1,470 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BatchSimulation {
+    //Many two-agent matches played in lockstep without agent processes or state files, for training agents.
+    //The rules are the ones Simulation and World play by: growth from the agent's own view, the same
+    //legality check (one bad move throws out the agent's whole turn), the same merge of both agents' moves
+    //and the same resolve sweep with a random start every turn.
+    //
+    //All K rings sit in one pair of arrays, ring k at [k * scale, (k + 1) * scale). Per agent arrays are laid
+    //out the same way with two agents per ring, agent a of ring k at row k * 2 + a. Everything is indexed
+    //from the agent's own start like its state file: position p is node (start + p) % scale.
+    //
+    //  moves       written by the caller before step(): net change per position (a negative number removes)
+    //  obs_counts  soldiers per position, -1 where the agent can't see
+    //  obs_owners  OBS_EMPTY, OBS_MINE, OBS_ENEMY or OBS_UNSEEN per position
+    //  obs_grow    soldiers the agent may place on its next turn
+    //
+    //step() consumes moves, clears them, plays one turn of every ring and fills in the observations. A ring
+    //that ends sets done and winner and starts over straight away, so the observations are already the new
+    //match's. Nothing is allocated per turn, and rings are split over a ForkJoinPool.
+    public static final int AGENTS = 2;
+
+    public static final byte OBS_EMPTY = 0;
+    public static final byte OBS_MINE = 1;
+    public static final byte OBS_ENEMY = 2;
+    public static final byte OBS_UNSEEN = 3;
+
+    public static final byte RUNNING = 0;
+    public static final byte ELIMINATED = 1; //an agent has no soldiers left
+    public static final byte TURN_LIMIT = 2; //max_turns was reached
+
+    private static final int RINGS_PER_TASK = 16;
+
+    public final int envs;
+    public final int scale;
+    public final int max_soldiers;
+    public final int starting_soldiers;
+    public final int visibility_range;
+    public final double fixedGrowthperTurn;
+    public final double ownershipBonusGrowth;
+    public int max_turns; //0 plays every ring until someone is eliminated
+
+    public final int[] soldiers; //envs * scale
+    public final byte[] owners;  //0 unowned, a + 1 for agent a
+    public final int[] moves;
+    public final int[] obs_counts;
+    public final byte[] obs_owners;
+    public final int[] obs_grow;   //envs * AGENTS
+    public final byte[] rejected;  //1 where the agent's last moves were illegal and ignored
+    public final byte[] done;      //envs, RUNNING or why the ring's last match ended
+    public final byte[] winner;    //envs, a + 1 for the winner of the ring's last match or 0 for a draw
+    public final int[] step;       //envs, the turn each ring is about to play
+    public final int[] starts = new int[AGENTS]; //node each agent's view starts at, the same on every ring
+
+    private final Random[] rand; //one per ring, for the resolve start
+    private final ForkJoinPool pool;
+    private final boolean own_pool;
+    private final RecursiveAction all;
+    private final Chunk[] chunks;
+
+    //threads <= 0 uses the common pool.
+    public BatchSimulation(int envs, int scale, int max_soldiers, int starting_soldiers, int visibility_range,
+            double fixedGrowthperTurn, double ownershipBonusGrowth, long seed, int threads) {
+        this.envs = envs;
+        this.scale = scale;
+        this.max_soldiers = max_soldiers;
+        this.starting_soldiers = starting_soldiers;
+        this.visibility_range = visibility_range;
+        this.fixedGrowthperTurn = fixedGrowthperTurn;
+        this.ownershipBonusGrowth = ownershipBonusGrowth;
+
+        this.soldiers = new int[envs * scale];
+        this.owners = new byte[envs * scale];
+        this.moves = new int[envs * AGENTS * scale];
+        this.obs_counts = new int[envs * AGENTS * scale];
+        this.obs_owners = new byte[envs * AGENTS * scale];
+        this.obs_grow = new int[envs * AGENTS];
+        this.rejected = new byte[envs * AGENTS];
+        this.done = new byte[envs];
+        this.winner = new byte[envs];
+        this.step = new int[envs];
+        this.rand = new Random[envs];
+        for (int k = 0; k < envs; k++) {
+            this.rand[k] = new Random(seed + k);
+        }
+        //same spacing as the World constructor
+        double divisions = (double) scale / (double) AGENTS;
+        for (int a = 0; a < AGENTS; a++) {
+            this.starts[a] = (int) (a * divisions);
+        }
+
+        this.own_pool = threads > 0;
+        this.pool = this.own_pool ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        this.chunks = new Chunk[(envs + RINGS_PER_TASK - 1) / RINGS_PER_TASK];
+        for (int c = 0; c < this.chunks.length; c++) {
+            this.chunks[c] = new Chunk(c * RINGS_PER_TASK, Math.min(envs, (c + 1) * RINGS_PER_TASK));
+        }
+        this.all = new RecursiveAction() {
+            protected void compute() {
+                for (Chunk c : chunks) {
+                    c.reinitialize();
+                }
+                invokeAll(chunks);
+            }
+        };
+        this.reset();
+    }
+
+    private class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int[] sums = new int[AGENTS + 1];   //observe's scratch, so a turn allocates nothing
+        private final int[] counts = new int[AGENTS + 1];
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            for (int k = this.from; k < this.to; k++) {
+                turn(k, this.sums, this.counts);
+            }
+        }
+    }
+
+    //Starts every ring over.
+    public void reset() {
+        int[] sums = new int[AGENTS + 1];
+        int[] counts = new int[AGENTS + 1];
+        for (int k = 0; k < this.envs; k++) {
+            this.resetRing(k);
+            this.observe(k, sums, counts);
+        }
+        Arrays.fill(this.moves, 0);
+    }
+
+    //Plays one turn on every ring.
+    public void step() {
+        this.all.reinitialize();
+        this.pool.invoke(this.all);
+    }
+
+    public void close() {
+        if (this.own_pool) {
+            this.pool.shutdown();
+        }
+    }
+
+    private void resetRing(int k) {
+        int base = k * this.scale;
+        Arrays.fill(this.soldiers, base, base + this.scale, 0);
+        Arrays.fill(this.owners, base, base + this.scale, (byte) 0);
+        for (int a = 0; a < AGENTS; a++) {
+            this.owners[base + this.starts[a]] = (byte) (a + 1);
+            this.soldiers[base + this.starts[a]] = this.starting_soldiers;
+        }
+        this.step[k] = 1;
+    }
+
+    //sums and counts are scratch for observe, one pair per thread.
+    private void turn(int k, int[] sums, int[] counts) {
+        int n = this.scale;
+        int base = k * n;
+        this.done[k] = RUNNING;
+        this.winner[k] = 0;
+        //check both agents against the ring as they saw it, before anything moves
+        for (int a = 0; a < AGENTS; a++) {
+            int row = k * AGENTS + a;
+            this.rejected[row] = (byte) (this.legal(row) ? 0 : 1);
+        }
+        //merge_moves: removals first, then placements, with two placements on one node netted against each other
+        for (int a = 0; a < AGENTS; a++) {
+            int row = k * AGENTS + a;
+            if (this.rejected[row] != 0) {
+                continue;
+            }
+            int m = row * n;
+            int g = this.starts[a];
+            for (int p = 0; p < n; p++, g = g + 1 == n ? 0 : g + 1) {
+                if (this.moves[m + p] < 0) {
+                    this.add(base + g, a + 1, this.moves[m + p]);
+                }
+            }
+        }
+        int m0 = this.rejected[k * AGENTS] != 0 ? -1 : k * AGENTS * n;
+        int m1 = this.rejected[k * AGENTS + 1] != 0 ? -1 : (k * AGENTS + 1) * n;
+        int p0 = n - this.starts[0] == n ? 0 : n - this.starts[0];
+        int p1 = n - this.starts[1] == n ? 0 : n - this.starts[1];
+        for (int g = 0; g < n; g++) {
+            int c0 = m0 < 0 ? 0 : Math.max(0, this.moves[m0 + p0]);
+            int c1 = m1 < 0 ? 0 : Math.max(0, this.moves[m1 + p1]);
+            if (c0 > c1) {
+                this.add(base + g, 1, c0 - c1);
+            } else if (c1 > c0) {
+                this.add(base + g, 2, c1 - c0);
+            }
+            p0 = p0 + 1 == n ? 0 : p0 + 1;
+            p1 = p1 + 1 == n ? 0 : p1 + 1;
+        }
+        Arrays.fill(this.moves, k * AGENTS * n, (k + 1) * AGENTS * n, 0);
+
+        resolve(this.soldiers, this.owners, base, n, this.max_soldiers, this.step[k] % 2, this.rand[k].nextInt(n));
+
+        //Simulation.checkVictory
+        long left0 = 0;
+        long left1 = 0;
+        for (int i = base; i < base + n; i++) {
+            if (this.owners[i] == 1) {
+                left0 += this.soldiers[i];
+            } else if (this.owners[i] == 2) {
+                left1 += this.soldiers[i];
+            }
+        }
+        if (left0 == 0 || left1 == 0) {
+            this.done[k] = ELIMINATED;
+            this.winner[k] = (byte) (left0 > 0 ? 1 : left1 > 0 ? 2 : 0);
+        } else if (this.max_turns > 0 && this.step[k] >= this.max_turns) {
+            this.done[k] = TURN_LIMIT;
+            this.winner[k] = (byte) (left0 > left1 ? 1 : left1 > left0 ? 2 : 0);
+        }
+        if (this.done[k] != RUNNING) {
+            this.resetRing(k);
+        } else {
+            this.step[k]++;
+        }
+        this.observe(k, sums, counts);
+    }
+
+    //Simulation.check_legal against the observation the agent was given.
+    private boolean legal(int row) {
+        int n = this.scale;
+        int m = row * n;
+        long total = 0;
+        for (int p = m; p < m + n; p++) {
+            total += this.moves[p];
+        }
+        if (total > this.obs_grow[row]) {
+            return false;
+        }
+        for (int p = m; p < m + n; p++) {
+            int c = this.moves[p];
+            if (c < 0 && (this.obs_owners[p] != OBS_MINE || this.obs_counts[p] < -c)) {
+                return false;
+            }
+            if (c > 0 && this.obs_owners[p] == OBS_UNSEEN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //World.Node.addSoldiers
+    private void add(int i, int owner, int change) {
+        int old = this.soldiers[i];
+        int o = this.owners[i];
+        int s;
+        if (o == 0 || o == owner) {
+            s = old + change;
+            o = owner;
+        } else if (old >= change) {
+            s = old - change;
+        } else {
+            s = change - old;
+            o = owner;
+        }
+        if (s > this.max_soldiers) {
+            s = this.max_soldiers;
+        }
+        this.soldiers[i] = s;
+        this.owners[i] = (byte) (s == 0 ? 0 : o);
+    }
+
+    //World.get_perspective and the growth from make_state_file, for both agents of ring k.
+    private void observe(int k, int[] sums, int[] counts) {
+        int n = this.scale;
+        int base = k * n;
+        int vis = this.visibility_range;
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        RingScan.SCAN.totals(this.soldiers, this.owners, base, base + n, sums, counts);
+        for (int a = 0; a < AGENTS; a++) {
+            int row = k * AGENTS + a;
+            int m = row * n;
+            byte id = (byte) (a + 1);
+            int total_soldiers = sums[id];
+            int total_nodes = counts[id];
+            //seen counts the agent's nodes within vis of g, slid round the ring
+            boolean wraps = 2 * vis + 1 >= n;
+            int seen = 0;
+            if (!wraps) {
+                for (int d = -vis; d <= vis; d++) {
+                    seen += this.owners[base + Math.floorMod(d, n)] == id ? 1 : 0;
+                }
+            }
+            int p = n - this.starts[a] == n ? 0 : n - this.starts[a];
+            for (int g = 0; g < n; g++) {
+                boolean visible = wraps ? total_nodes > 0 : seen > 0;
+                byte o = this.owners[base + g];
+                if (!visible) {
+                    this.obs_counts[m + p] = -1;
+                    this.obs_owners[m + p] = OBS_UNSEEN;
+                } else {
+                    this.obs_counts[m + p] = this.soldiers[base + g];
+                    this.obs_owners[m + p] = o == id ? OBS_MINE : o == 0 ? OBS_EMPTY : OBS_ENEMY;
+                }
+                if (!wraps) {
+                    int in = g + vis + 1;
+                    int out = g - vis;
+                    seen += (this.owners[base + (in >= n ? in - n : in)] == id ? 1 : 0)
+                            - (this.owners[base + (out < 0 ? out + n : out)] == id ? 1 : 0);
+                }
+                p = p + 1 == n ? 0 : p + 1;
+            }
+            double bonus = 1.0 + (this.ownershipBonusGrowth * total_nodes);
+            this.obs_grow[row] = (int) (total_soldiers * this.fixedGrowthperTurn * bonus);
+        }
+    }
+
+    //World.resolve on ring [base, base + n) of the arrays.
+    public static void resolve(int[] soldiers, byte[] owners, int base, int n, int max_soldiers, int direction, int start) {
+        if (direction == 1) {
+            for (int i = start; i < start + n - 1; i++) {
+                i = nextContested(owners, base, n, i, start + n - 1);
+                if (i >= start + n - 1) {
+                    break;
+                }
+                int p = base + i % n;
+                int r = base + (i + 1) % n;
+                int rr = base + (i + 2) % n;
+                i = i + fight(soldiers, owners, max_soldiers, p, r, rr, i == start + n - 2);
+            }
+        } else {
+            for (int i = start; i > 1 - (n - start); i--) {
+                i = prevContested(owners, base, n, i, 1 - (n - start));
+                if (i <= 1 - (n - start)) {
+                    break;
+                }
+                int p = base + (n + i) % n;
+                int l = base + (n + i - 1) % n;
+                int ll = base + (2 * n + i - 2) % n;
+                i = i - fight(soldiers, owners, max_soldiers, p, l, ll, i == 2 - (n - start));
+            }
+        }
+    }
+
+    //RingStore.nextContested for the ring of n nodes at base.
+    private static int nextContested(byte[] owners, int base, int n, int i, int end) {
+        while (i < end) {
+            int g = i % n;
+            if (g == n - 1) {
+                if (RingScan.contested(owners[base + n - 1], owners[base])) {
+                    return i;
+                }
+                i++;
+                continue;
+            }
+            int stop = Math.min(n - 1, g + (end - i));
+            int j = RingScan.SCAN.nextContested(owners, base + g, base + stop) - base;
+            if (j < stop) {
+                return i + (j - g);
+            }
+            i += stop - g;
+        }
+        return end;
+    }
+
+    //RingStore.prevContested for the ring of n nodes at base.
+    private static int prevContested(byte[] owners, int base, int n, int i, int end) {
+        while (i > end) {
+            int g = Math.floorMod(i, n);
+            if (g == 0) {
+                if (RingScan.contested(owners[base + n - 1], owners[base])) {
+                    return i;
+                }
+                i--;
+                continue;
+            }
+            int low = Math.max(-1, g - 1 - (i - end));
+            int j = RingScan.SCAN.prevContested(owners, base + g - 1, base + low) - base;
+            if (j > low) {
+                return i - (g - 1 - j);
+            }
+            i -= g - 1 - low;
+        }
+        return end;
+    }
+
+    //World.fight_right (or fight_left) of node p against its neighbour q, with q2 beyond it. Returns how far to skip.
+    //Also used by RingWorker, whose p, q and q2 may be halo copies of another worker's nodes.
+    static int fight(int[] soldiers, byte[] owners, int max_soldiers, int p, int q, int q2, boolean noTrip) {
+        if (owners[q2] == owners[p] && !noTrip) {
+            //trip battle
+            if (soldiers[q] == soldiers[p] + soldiers[q2]) {
+                soldiers[p] = 0;
+                owners[p] = 0;
+                soldiers[q] = 0;
+                owners[q] = 0;
+                soldiers[q2] = 0;
+                owners[q2] = 0;
+            } else if (soldiers[q] > soldiers[p] + soldiers[q2]) {
+                owners[p] = owners[q];
+                owners[q2] = owners[q];
+            } else {
+                owners[q] = owners[p];
+            }
+            return 2;
+        }
+        if (soldiers[q] == soldiers[p]) {
+            soldiers[p] = 0;
+            owners[p] = 0;
+            soldiers[q] = 0;
+            owners[q] = 0;
+        } else if (soldiers[q] < soldiers[p]) {
+            soldiers[p] = Math.min(soldiers[p] + soldiers[q], max_soldiers);
+            soldiers[q] = 0;
+            owners[q] = 0;
+        } else {
+            soldiers[q] = Math.min(soldiers[q] + soldiers[p], max_soldiers);
+            soldiers[p] = 0;
+            owners[p] = 0;
+        }
+        return 1;
+    }
+
+    //java BatchSimulation <rings> <ring size> <turns> [threads]
+    //Plays every ring with agents that put all their growth on a random node they own and prints the rate.
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("usage: java BatchSimulation <rings> <ring size> <turns> [threads]");
+            return;
+        }
+        int envs = Integer.parseInt(args[0]);
+        int scale = Integer.parseInt(args[1]);
+        int turns = Integer.parseInt(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        BatchSimulation batch = new BatchSimulation(envs, scale, 10000, 75, 5, 0.10, 0.05, 1, threads);
+        batch.max_turns = 1000;
+        Random policy = new Random(2);
+        long finished = 0;
+        long stepping = 0;
+        for (int t = 0; t < turns; t++) {
+            for (int row = 0; row < envs * AGENTS; row++) {
+                int m = row * scale;
+                int from = policy.nextInt(scale);
+                for (int p = 0; p < scale; p++) {
+                    int q = from + p < scale ? from + p : from + p - scale;
+                    if (batch.obs_owners[m + q] == OBS_MINE) {
+                        batch.moves[m + q] = batch.obs_grow[row];
+                        break;
+                    }
+                }
+            }
+            long t0 = System.nanoTime();
+            batch.step();
+            stepping += System.nanoTime() - t0;
+            for (int k = 0; k < envs; k++) {
+                finished += batch.done[k] != RUNNING ? 1 : 0;
+            }
+        }
+        batch.close();
+        double seconds = stepping / 1e9;
+        System.out.println(((long) envs * turns) + " ring turns in " + String.format("%.3f", seconds) + " s stepping, "
+                + String.format("%.0f", envs * (double) turns / seconds) + " per second, " + finished + " matches finished");
+    }
+}
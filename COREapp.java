@@ -7,6 +7,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,6 +43,10 @@ public class COREapp extends JFrame {
     //sim super step can be gotten from the sim at any time.
     public int displaySuperStep; //The step of the sim being displayed..corresponds to the super step
     public Simulation sim;
+    private SimulationRunner runner; //produces turns off the EDT
+    private StatsChart statsChart;
+    public ArrayList<Simulation.World_State> history; //snapshots received from the runner, only touched on the EDT
+    private boolean advance_pending; //step forward as soon as the requested turn arrives
     public Set<Agent_Details> agent_set; //all the agents added to the app
     public Agent_Details[] active_agents; //just the 2 agents who play against eachother
     private Timer timer;
@@ -51,6 +56,14 @@ public class COREapp extends JFrame {
     public int startingSuperStep;
     public HashMap<Integer, Integer> superStep2Step;
     public Boolean debug_mode;
+    public Boolean trace_mode;
+    public Boolean spool_mode;
+    public Boolean checkpoint_mode;
+    public Boolean replay_mode;
+    public Boolean delta_mode;
+    public Boolean sparse_mode;
+    public Boolean warm_mode;
+    private AgentHost agent_host; //kept across reloads so the JDK code agents use stays compiled
     public Boolean singleMode;
     public Boolean absorbMode;
     public int growth_mode;
@@ -88,6 +101,13 @@ public class COREapp extends JFrame {
         this.faceLookup = new HashMap<>();
         this.superStep2Step = new HashMap<>();
         this.debug_mode = false;
+        this.trace_mode = false;
+        this.spool_mode = false;
+        this.checkpoint_mode = false;
+        this.replay_mode = false;
+        this.delta_mode = false;
+        this.sparse_mode = false;
+        this.warm_mode = false;
         this.singleMode = false;
         this.absorbMode = true;
         this.growth_mode = 1;
@@ -610,15 +630,20 @@ public class COREapp extends JFrame {
         simButtonMenu.setBorder(BorderFactory.createBevelBorder(BevelBorder.RAISED));
         JMenuItem preCalcItem = new JMenuItem("PreCalc Next 10 Steps");
         preCalcItem.addActionListener(e -> {
-            preCalcSim(10);
+            preCalcSim(10, false);
         });
-        preCalcItem.setToolTipText("Run the simulation for 10 steps");
+        preCalcItem.setToolTipText("Run the simulation for 10 steps in the background");
         JMenuItem preCalcNItem = new JMenuItem("PreCalc Next N Steps");
         preCalcNItem.addActionListener(e -> {
             int tmp = Integer.parseInt(JOptionPane.showInputDialog(this, "Steps to Precompute:"));
-            preCalcSim(tmp);
+            preCalcSim(tmp, false);
         });
-        preCalcNItem.setToolTipText("Run the simulation for N steps.  CAREFUL! Test how long 10 steps take before you try 1000 etc..");
+        preCalcNItem.setToolTipText("Run the simulation for N steps in the background.  Finished steps can be viewed while the rest are computed.");
+        JMenuItem preCalcVictoryItem = new JMenuItem("PreCalc Until Victory");
+        preCalcVictoryItem.addActionListener(e -> {
+            preCalcSim(0, true);
+        });
+        preCalcVictoryItem.setToolTipText("Run the simulation in the background until one agent wins");
         JMenuItem returnItem = new JMenuItem("Return to Start of Sim");
         returnItem.addActionListener(e -> {
             returnToStep(1);
@@ -646,12 +671,105 @@ public class COREapp extends JFrame {
             simdisplayPanel.repaint();
         });
         debug.setToolTipText("Debug mode shows you information about agent actions and gives you node location numbers");
-        //simButtonMenu.add(preCalcItem);
-        //simButtonMenu.add(preCalcNItem);
+        JMenuItem traceItem = new JMenuItem("Record Match Trace");
+        traceItem.addActionListener(e -> {
+            if (this.trace_mode) {
+                this.trace_mode = false;
+                traceItem.setText("Record Match Trace");
+            } else {
+                this.trace_mode = true;
+                traceItem.setText("Stop Recording Match Trace");
+            }
+        });
+        traceItem.setToolTipText("Record a timeline of agent processes, engine phases and repaints.  Takes effect on the next reload.");
+        JMenuItem spoolItem = new JMenuItem("Save Agent Output to logs/");
+        spoolItem.addActionListener(e -> {
+            if (this.spool_mode) {
+                this.spool_mode = false;
+                spoolItem.setText("Save Agent Output to logs/");
+            } else {
+                this.spool_mode = true;
+                spoolItem.setText("Stop Saving Agent Output");
+            }
+        });
+        spoolItem.setToolTipText("Write each agent's output to a compressed per-match log.  Takes effect on the next reload.");
+        JMenuItem checkpointItem = new JMenuItem("Save Checkpoints to checkpoints/");
+        checkpointItem.addActionListener(e -> {
+            if (this.checkpoint_mode) {
+                this.checkpoint_mode = false;
+                checkpointItem.setText("Save Checkpoints to checkpoints/");
+            } else {
+                this.checkpoint_mode = true;
+                checkpointItem.setText("Stop Saving Checkpoints");
+            }
+        });
+        checkpointItem.setToolTipText("Save the match every 100 turns so it can be resumed later.  Takes effect on the next reload.");
+        JMenuItem replayItem = new JMenuItem("Record Replay to replays/");
+        replayItem.addActionListener(e -> {
+            if (this.replay_mode) {
+                this.replay_mode = false;
+                replayItem.setText("Record Replay to replays/");
+            } else {
+                this.replay_mode = true;
+                replayItem.setText("Stop Recording Replays");
+            }
+        });
+        replayItem.setToolTipText("Record the seed, moves and state hash of every turn, to check later with 'java ReplayLog <file>'.  Takes effect on the next reload.");
+        JMenuItem deltaItem = new JMenuItem("Send Only Changes in State Files");
+        deltaItem.addActionListener(e -> {
+            if (this.delta_mode) {
+                this.delta_mode = false;
+                deltaItem.setText("Send Only Changes in State Files");
+            } else {
+                this.delta_mode = true;
+                deltaItem.setText("Send Full State Files");
+            }
+        });
+        deltaItem.setToolTipText("After the first turn, state files start with 'delta <k>' and list only the k nodes that changed as index,count,owner.  Takes effect on the next reload.");
+        JMenuItem sparseItem = new JMenuItem("Send Only Visible Nodes in State Files");
+        sparseItem.addActionListener(e -> {
+            if (this.sparse_mode) {
+                this.sparse_mode = false;
+                sparseItem.setText("Send Only Visible Nodes in State Files");
+            } else {
+                this.sparse_mode = true;
+                sparseItem.setText("Send Every Node in State Files");
+            }
+        });
+        sparseItem.setToolTipText("State files start with 'windows <k> <ring size>' and hold only the k stretches of the ring the agent can see, each as offset,length then counts and owners.  Takes effect on the next reload.");
+        JMenuItem warmItem = new JMenuItem("Run Java Agents in This JVM");
+        warmItem.addActionListener(e -> {
+            if (this.warm_mode) {
+                this.warm_mode = false;
+                warmItem.setText("Run Java Agents in This JVM");
+            } else {
+                this.warm_mode = true;
+                warmItem.setText("Run Every Agent as a Process");
+            }
+        });
+        warmItem.setToolTipText("Call the main of 'java' and 'java -jar' agents in this JVM instead of starting a new one each turn.  System.exit only ends the agent's turn, and an agent taking over 10 seconds goes back to running as a process.  Takes effect on the next reload.");
+        JMenuItem resumeItem = new JMenuItem("Resume From Checkpoint");
+        resumeItem.addActionListener(e -> chooseCheckpoint());
+        resumeItem.setToolTipText("Carry on a saved match from checkpoints/.  Replaces the current agents with the match's agents.");
+        JMenuItem saveTraceItem = new JMenuItem("Save Match Trace");
+        saveTraceItem.addActionListener(e -> saveTrace());
+        saveTraceItem.setToolTipText("Write the recorded timeline to traces/ for chrome://tracing or ui.perfetto.dev");
+        simButtonMenu.add(preCalcItem);
+        simButtonMenu.add(preCalcNItem);
+        simButtonMenu.add(preCalcVictoryItem);
         simButtonMenu.add(returnItem);
         simButtonMenu.add(returnNItem);
         //simButtonMenu.add(setSpeedItem);
         simButtonMenu.add(debug);
+        simButtonMenu.add(traceItem);
+        simButtonMenu.add(saveTraceItem);
+        simButtonMenu.add(spoolItem);
+        simButtonMenu.add(checkpointItem);
+        simButtonMenu.add(resumeItem);
+        simButtonMenu.add(replayItem);
+        simButtonMenu.add(deltaItem);
+        simButtonMenu.add(sparseItem);
+        simButtonMenu.add(warmItem);
         simMenuBar.add(simButtonMenu);
         simSetButton.add(simMenuBar);
 
@@ -686,11 +804,31 @@ public class COREapp extends JFrame {
         
         tabbedPane.addTab("Display", displayPanel);
 
+        statsChart = new StatsChart();
+        tabbedPane.addTab("Statistics", statsChart);
+
         // Add the tabbed pane to the frame
         add(tabbedPane);
     }
 
+    //Stops the current runner and waits for its turn in progress, before anything the old match's thread
+    //still uses (agent folders, Agent_Details, the old Simulation) is changed for a new one.
+    private void stopRunner() {
+        if (this.runner == null) {
+            return;
+        }
+        try {
+            if (!this.runner.shutdown()) {
+                EventLog.error(EventLog.GUI, "The previous simulation's turn was still running after " + SimulationRunner.SHUTDOWN_WAIT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.runner = null;
+    }
+
     private void reloadSim() {
+        this.stopRunner();
         ArrayList<String> ag_names = new ArrayList<>();
         ArrayList<Agent_Details> myAgents = new ArrayList<>();
         //int tmp_i = 0;
@@ -708,9 +846,50 @@ public class COREapp extends JFrame {
         String[] agArray = new String[ ag_names.size() ];
         ag_names.toArray( agArray );
         //this.sim = new Simulation(this.wSize,agArray,agentLookup,gpturn,maxNumSoldiers,startcount,visibility_range,growth_mode,absorbMode);
-        this.sim = new Simulation(this.wSize, this.active_agents, maxNumSoldiers, startcount, visibility_range, gpturn, ownershipBonusGrowth,agentLookup);
-        this.step = 1;
-        this.displayStep = 1;
+        if (this.sim != null) {
+            this.sim.closeOutput();
+        }
+        this.startSim(new Simulation(this.wSize, this.active_agents, maxNumSoldiers, startcount, visibility_range, gpturn, ownershipBonusGrowth,agentLookup));
+    }
+
+    private void startSim(Simulation newSim) {
+        this.sim = newSim;
+        if (this.trace_mode) {
+            this.sim.trace = new MatchTrace(this.active_agents);
+        }
+        if (this.spool_mode) {
+            this.sim.spool_dir = "logs";
+        }
+        if (this.checkpoint_mode) {
+            this.sim.checkpoint_file = "checkpoints/match_" + this.sim.match_id + ".ckpt";
+            this.sim.checkpoint_every = 100;
+        }
+        for (Agent_Details agent : this.sim.agents) {
+            agent.delta_state = this.delta_mode;
+            agent.sparse_state = this.sparse_mode;
+        }
+        if (this.warm_mode) {
+            if (this.agent_host == null) {
+                this.agent_host = new AgentHost(10000);
+            }
+            this.sim.agent_host = this.agent_host;
+        }
+        if (this.replay_mode && this.sim.step == 1) { //a replay always starts from the first turn
+            new File("replays").mkdirs();
+            try {
+                this.sim.replay_out = ReplayLog.record("replays/match_" + this.sim.match_id + ".replay", this.sim);
+            } catch (IOException e) {
+                System.err.println("Failed to start replay log: " + e.getMessage());
+            }
+        }
+        this.stopRunner();
+        this.history = new ArrayList<>(this.sim.state_history);
+        this.statsChart.setStats(this.sim.stats, this.active_agents);
+        this.runner = new SimulationRunner(this.sim, 8, () -> SwingUtilities.invokeLater(this::consumeSnapshots),
+                e -> SwingUtilities.invokeLater(() -> simulationFailed(e)));
+        this.advance_pending = false;
+        this.step = this.history.size();
+        this.displayStep = this.history.size();
         //this.displaySuperStep = sim.superStep;
         //this.startingSuperStep = sim.superStep;
         //this.superStep2Step.put(displaySuperStep,displayStep);
@@ -718,8 +897,96 @@ public class COREapp extends JFrame {
         simdisplayPanel.repaint();
     }
 
+    private void chooseCheckpoint() {
+        File folder = new File("checkpoints/");
+        String[] saveFiles = folder.list((dir, name) -> name.endsWith(".ckpt"));
+        if (saveFiles == null || saveFiles.length == 0) {
+            JOptionPane.showMessageDialog(this, "No checkpoints found in 'checkpoints/' folder.");
+            return;
+        }
+        Arrays.sort(saveFiles);
+        JComboBox<String> fileList = new JComboBox<>(saveFiles);
+        int result = JOptionPane.showConfirmDialog(this, fileList, "Choose Checkpoint", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result == JOptionPane.OK_OPTION) {
+            resumeSim("checkpoints/" + fileList.getSelectedItem());
+        }
+    }
+
+    private void resumeSim(String filename) {
+        Checkpoint cp;
+        try {
+            cp = Checkpoint.read(filename);
+        } catch (IOException | RuntimeException e) {
+            JOptionPane.showMessageDialog(this, "Could not read checkpoint: " + e.getMessage());
+            return;
+        }
+        this.stopRunner();
+        //the saved match's agents replace whatever is loaded
+        agent_set.clear();
+        agentLookup.clear();
+        faceLookup.clear();
+        bottomPanel.removeAll();
+        for (int a = 0; a < cp.agentNames.length; a++) {
+            Color color = new Color(cp.agentColors[a], true);
+            addAgent(cp.agentFiles[a], cp.agentNames[a], cp.agentLangs[a], color);
+            addAgentButton(cp.agentFiles[a], cp.agentNames[a], color);
+            new File(cp.agentNames[a]).mkdirs();
+        }
+        bottomPanel.revalidate();
+        bottomPanel.repaint();
+        if (this.sim != null) {
+            this.sim.closeOutput();
+        }
+        Simulation resumed;
+        try {
+            resumed = cp.restore(agentLookup);
+        } catch (RuntimeException e) {
+            JOptionPane.showMessageDialog(this, "Could not restore checkpoint: " + e.getMessage());
+            return;
+        }
+        this.active_agents = resumed.agents;
+        this.wSize = cp.scale;
+        this.startSim(resumed);
+    }
+
+    private void saveTrace() {
+        if (sim == null || sim.trace == null) {
+            JOptionPane.showMessageDialog(this, "No trace recorded. Turn on 'Record Match Trace' and reload the game.");
+            return;
+        }
+        File traceDir = new File("traces");
+        if (!traceDir.exists()) {
+            traceDir.mkdirs();
+        }
+        String filename = "traces/match_" + System.currentTimeMillis() + ".json";
+        try {
+            sim.trace.write(filename);
+            JOptionPane.showMessageDialog(this, "Saved " + sim.trace.size() + " trace events to " + filename);
+        } catch (IOException e) {
+            System.err.println("Failed to write trace: " + e.getMessage());
+        }
+    }
+
+    //Moves finished turns from the runner into the display history. Runs on the EDT.
+    //While playing, the play timer takes one turn per tick instead so the runner stays only a queue ahead.
+    private void consumeSnapshots() {
+        if (this.timer != null && this.timer.isRunning()) {
+            return;
+        }
+        if (this.runner == null || this.runner.drainTo(this.history) == 0) {
+            return;
+        }
+        this.step = this.history.size();
+        if (this.advance_pending && this.displayStep < this.history.size()) {
+            this.advance_pending = false;
+            this.displayStep++;
+            this.displaySuperStep = this.displayStep;
+        }
+        simdisplayPanel.repaint();
+    }
+
     private void returnToStep(int n) {
-        this.displayStep = n;
+        this.displayStep = Math.max(1, Math.min(n, this.history == null ? 1 : this.history.size()));
         if (n == 1 | n == 0) {
             this.displaySuperStep = this.startingSuperStep;
         } else {
@@ -728,32 +995,88 @@ public class COREapp extends JFrame {
         simdisplayPanel.repaint();
     }
 
-    private void preCalcSim(int n) {
-        int currentDisplayStep = this.displayStep;
-        int currentDisplaySuperStep = this.displaySuperStep;
+    //The runner's thread died on an exception. Runs on the EDT.
+    private void simulationFailed(RuntimeException e) {
+        if (timer != null) {
+            timer.stop();
+        }
+        consumeSnapshots();
+        JOptionPane.showMessageDialog(this, "The simulation stopped at step " + sim.step + ": " + e,
+                "Simulation error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    private void preCalcSim(int n, boolean untilVictory) {
+        //the runner computes the turns in the background, the display stays where it is
+        //finished turns are added to the history as they arrive so they can be viewed right away
+        if (this.runner == null) {
+            return;
+        }
+        SimulationRunner job = this.runner;
         int ac = agent_set.size();
-        for (int i = 0; i < n*ac; i++) {
-            this.updateSimulationNoDisplay();
+        int total = n*ac;
+        long startProduced = job.getProduced();
+        long startTime = System.nanoTime();
+        if (untilVictory) {
+            job.requestUntilVictory();
+        } else {
+            job.request(total);
         }
-        this.displayStep = currentDisplayStep;
-        this.displaySuperStep = currentDisplaySuperStep;
-        simdisplayPanel.repaint();   
+
+        JDialog dialog = new JDialog(this, "Precalculating", false);
+        dialog.setLayout(new BorderLayout(10, 10));
+        JProgressBar progressBar = new JProgressBar(0, Math.max(total, 1));
+        progressBar.setIndeterminate(untilVictory);
+        progressBar.setStringPainted(!untilVictory);
+        JLabel rateLabel = new JLabel("0 steps (0.0 steps/s)");
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> job.cancel());
+        JPanel south = new JPanel();
+        south.add(cancelButton);
+        dialog.add(progressBar, BorderLayout.NORTH);
+        dialog.add(rateLabel, BorderLayout.CENTER);
+        dialog.add(south, BorderLayout.SOUTH);
+        dialog.setSize(300, 130);
+        dialog.setLocationRelativeTo(this);
+
+        Timer progress = new Timer(200, null);
+        progress.addActionListener(e -> {
+            consumeSnapshots();
+            long done = job.getProduced() - startProduced;
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            progressBar.setValue((int) Math.min(done, total));
+            rateLabel.setText(" " + done + " steps (" + String.format("%.1f", done / Math.max(seconds, 1e-3)) + " steps/s)");
+            if (!job.isPrecalculating() || job != this.runner) {
+                progress.stop();
+                dialog.dispose();
+            }
+        });
+        dialog.setVisible(true);
+        progress.start();
     }
 
     private void startSimulation() {
         if (timer != null) {
             timer.stop();
         }
+        if (runner == null) {
+            return;
+        }
+        //the runner keeps producing turns ahead of the display, the timer only consumes and repaints
+        runner.setContinuous(true);
         timer = new Timer(sSpeed, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (displayStep < sim.step) {
-                    displayStep++;
-                    //displayStep = superStep2Step.get(displaySuperStep);
-                    simdisplayPanel.repaint();
-                    return;
+                if (displayStep >= history.size()) {
+                    Simulation.World_State ws = runner.poll();
+                    if (ws == null) {
+                        return; //the next turn is still being computed
+                    }
+                    history.add(ws);
+                    step = history.size();
                 }
-                updateSimulation();
+                displayStep++;
+                //displayStep = superStep2Step.get(displaySuperStep);
+                simdisplayPanel.repaint();
             }
         });
         timer.start();
@@ -763,11 +1086,19 @@ public class COREapp extends JFrame {
         if (timer != null) {
             timer.stop();
         }
+        if (runner != null) {
+            runner.setContinuous(false);
+            consumeSnapshots();
+        }
     }
 
     private void stepForward() {
         //needs to check if display step < step in which case updateSim isn't called but display step moves up
-        if (displayStep < sim.step) {
+        if (runner == null) {
+            return;
+        }
+        consumeSnapshots();
+        if (displayStep < history.size()) {
             displayStep++;
             //displayStep = this.superStep2Step.get(displaySuperStep);
             simdisplayPanel.repaint();
@@ -1061,127 +1392,107 @@ public class COREapp extends JFrame {
     }
 
     class DisplayPanel extends JPanel {
-        private Image gifImage;
-        private Image shrunkFace;
-        private Image smallFace;
-        //private Image midRedFace;
-        private Image mildFace;
-        private Image redFace;
-        private Image[] redFaces;
-        private Image[] blueFaces;
-        private Image[] greenFaces;
-        private Image[] yellowFaces;
-        private Image[] otherFaces;
-        private HashMap<Integer, Image[]> whichFace;
-
-        private Image clockwiseArrow;
-        private Image counterclockwiseArrow;
+        private SpriteCache sprites;
+        private RingRenderer ringRenderer;
+        private LodRenderer lodRenderer;
+        private double dragAngle;
     
-        // Constructor or initialization block to load the GIF
         public DisplayPanel() {
-            redFaces = new Image[3];
-            blueFaces = new Image[3];
-            greenFaces = new Image[3];
-            yellowFaces = new Image[3];
-            otherFaces = new Image[3];
-            whichFace = new HashMap<>();
-            redFace = new ImageIcon("src/cartoonFace.gif").getImage(); // Load your GIF image here
-            mildFace = new ImageIcon("src/mildFace.gif").getImage();
-            redFaces[0] = new ImageIcon("src/cartoonFace.gif").getImage();
-            redFaces[1] = redFaces[0].getScaledInstance(27, 27,  java.awt.Image.SCALE_SMOOTH);
-            redFaces[2] = redFaces[0].getScaledInstance(24, 24,  java.awt.Image.SCALE_SMOOTH);
-            blueFaces[0] = new ImageIcon("src/angryEyebrowFace.gif").getImage();
-            blueFaces[1] = blueFaces[0].getScaledInstance(27, 27,  java.awt.Image.SCALE_SMOOTH);
-            blueFaces[2] = blueFaces[0].getScaledInstance(24, 24,  java.awt.Image.SCALE_SMOOTH);
-            greenFaces[0] = new ImageIcon("src/angryTongueFace.gif").getImage();
-            greenFaces[1] = greenFaces[0].getScaledInstance(27, 27,  java.awt.Image.SCALE_SMOOTH);
-            greenFaces[2] = greenFaces[0].getScaledInstance(24, 24,  java.awt.Image.SCALE_SMOOTH);
-            yellowFaces[0] = new ImageIcon("src/dullFace.gif").getImage();
-            yellowFaces[1] = yellowFaces[0].getScaledInstance(27, 27,  java.awt.Image.SCALE_SMOOTH);
-            yellowFaces[2] = yellowFaces[0].getScaledInstance(24, 24,  java.awt.Image.SCALE_SMOOTH);
-            otherFaces[0] = new ImageIcon("src/crosseyedFace.gif").getImage();
-            otherFaces[1] = otherFaces[0].getScaledInstance(27, 27,  java.awt.Image.SCALE_SMOOTH);
-            otherFaces[2] = otherFaces[0].getScaledInstance(24, 24,  java.awt.Image.SCALE_SMOOTH);
-            shrunkFace = mildFace.getScaledInstance(25, 25,  java.awt.Image.SCALE_SMOOTH); 
-            smallFace = mildFace.getScaledInstance(20, 20,  java.awt.Image.SCALE_SMOOTH);
-            whichFace.put(0,redFaces);
-            whichFace.put(1,blueFaces);
-            whichFace.put(2,greenFaces);
-            whichFace.put(3,yellowFaces);
-            whichFace.put(4,otherFaces); //add different images later
-            //resolve direction arrows
-            clockwiseArrow = new ImageIcon("src/redclockwise.gif").getImage();
-            counterclockwiseArrow = new ImageIcon("src/bluecounterclockwise.gif").getImage();
+            //faces and arrows are decoded and scaled in the background, the first frames just go without them
+            sprites = new SpriteCache("src", () -> SwingUtilities.invokeLater(this::repaint));
+            ringRenderer = new RingRenderer();
+            lodRenderer = new LodRenderer();
+            //mouse wheel zooms into the ring around the pointer, dragging pans, double click shows the whole ring
+            addMouseWheelListener(e -> {
+                lodRenderer.zoom(e.getWheelRotation() < 0 ? 0.5 : 2.0, angleAt(e.getX(), e.getY()));
+                repaint();
+            });
+            java.awt.event.MouseAdapter panner = new java.awt.event.MouseAdapter() {
+                public void mousePressed(java.awt.event.MouseEvent e) {
+                    dragAngle = angleAt(e.getX(), e.getY());
+                    if (e.getClickCount() == 2) {
+                        lodRenderer.reset(history == null ? 0 : history.get(displayStep-1).counts.size());
+                        repaint();
+                    }
+                }
+                public void mouseDragged(java.awt.event.MouseEvent e) {
+                    double a = angleAt(e.getX(), e.getY());
+                    double delta = a - dragAngle;
+                    if (delta > 180) {
+                        delta -= 360;
+                    } else if (delta < -180) {
+                        delta += 360;
+                    }
+                    lodRenderer.pan(delta);
+                    dragAngle = a;
+                    repaint();
+                }
+            };
+            addMouseListener(panner);
+            addMouseMotionListener(panner);
+        }
+
+        private double angleAt(int x, int y) {
+            double a = Math.toDegrees(Math.atan2(getHeight() / 2 - y, x - getWidth() / 2));
+            return a < 0 ? a + 360 : a;
         }
 
         public Image whichFaceGet(int fint) {
-            return whichFace.get(fint)[0];
+            return sprites.face(fint, SpriteCache.FULL);
         }
 
+        //null until the sprites have loaded
         private Image getFace(int myCount, Color myColor) {
-            if (myCount < 100) {
-                return smallFace;
-            }
-            int scaler = 0;
-            int fint = faceLookup.get(myColor);
-            Image[] faces = whichFace.get(fint);
-            if (myCount < 201) {
-                scaler = 2;
-            } else if (myCount < 351) {
-                scaler = 1;
+            int tier = SpriteCache.tierFor(myCount);
+            if (tier == SpriteCache.TINY) {
+                return sprites.face(0, tier);
             }
-            //System.out.println("FACE STUFF fint: " + fint + " scaler: " + scaler);
-            //System.out.println("Count: " + myCount + " Color: " + myColor.getRed() + ", " + myColor.getGreen() + ", " + myColor.getBlue());
-            return faces[scaler];
+            return sprites.face(faceLookup.get(myColor), tier);
         }
         private HashMap<Integer,Integer> findCenterIndicesAndSums(Simulation.World_State dState, int minSize) {
-            ArrayList<Integer> centerIndices = new ArrayList<>();
-            ArrayList<Integer> sums = new ArrayList<>();
+            //reads the snapshot's run-length territory index instead of rescanning the ring
             HashMap<Integer,Integer> indexToSum = new HashMap<>();
-            
-            int n = dState.owners.size();
-            int start = 0;
-    
-            while (start < n) {
-                int end = start;
-                
-                // Find the end of the sublist with the same owner
-                while (end < n && dState.owners.get(end).equals(dState.owners.get(start))) {
-                    end++;
-                }
-    
-                int sublistSize = end - start;
-                if (sublistSize >= minSize) {
+            TerritoryIndex runs = dState.territory;
+            for (int r = 0; r < runs.runCount(); r++) {
+                int sublistSize = runs.length(r);
+                if (sublistSize >= minSize && runs.owner(r) != 0) {
                     // Calculate the center index
-                    int centerIndex = start + (sublistSize - 1) / 2;
-                    //centerIndices.add(centerIndex);
-    
-                    // Calculate the sum of the counts in this sublist
-                    int sum = 0;
-                    for (int i = start; i < end; i++) {
-                        sum += dState.counts.get(i);
-                    }
-                    //sums.add(sum);
-                    if (dState.owners.get(start) != Color.GRAY) {
-                        indexToSum.put(centerIndex,sum);
-                    }  
+                    int centerIndex = runs.start(r) + (sublistSize - 1) / 2;
+                    indexToSum.put(centerIndex, (int) runs.soldiers(r));
                 }
-    
-                // Move to the next group
-                start = end;
             }
-    
-            // Print the results
-            //System.out.println("Center indices of sublists: " + centerIndices);
-            //System.out.println("Sums of counts for those sublists: " + sums);
-    
             return indexToSum;
         }
-    
+
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
-    
+            MatchTrace trace = (sim != null) ? sim.trace : null;
+            long traceStart = (trace != null) ? trace.now() : 0;
+            paintRing(g);
+            if (trace != null) {
+                trace.span(MatchTrace.GUI_TRACK, "repaint", displayStep, traceStart);
+            }
+        }
+
+        private void paintAgentOutput(Graphics g) {
+            //most recent lines each agent printed, in the top right corner
+            int x = getWidth() - 260;
+            int y = 20;
+            for (Agent_Details ag : sim.agents) {
+                g.setColor(ag.getColor());
+                g.drawString(":::" + ag.locname + " OUTPUT:::", x, y);
+                y += 12;
+                g.setColor(Color.BLACK);
+                for (String line : sim.outputFor(ag).recent(6)) {
+                    g.drawString(line.length() > 40 ? line.substring(0, 40) + "..." : line, x, y);
+                    y += 12;
+                }
+                y += 6;
+            }
+        }
+
+        private void paintRing(Graphics g) {
             if (step == 0) {
                 Font f = new Font("Arial", Font.BOLD, 15);
                 g.setFont(f);
@@ -1190,70 +1501,41 @@ public class COREapp extends JFrame {
                 return;
             }
     
-            String stepS = Integer.toString(step);
-            String stepD = Integer.toString(displayStep);
-            g.setColor(Color.BLACK);
-            g.drawString("Last Game Step: " + stepS, 40, 33);
-            g.drawString("Current Display Step: " + stepD, 40, 43);
-            //g.drawImage(gifImage, 50, 75, this);
-    
-            ArrayList<Simulation.World_State> state_history = sim.get_state_history();
-            System.out.println(displayStep);
+            ArrayList<Simulation.World_State> state_history = history;
+            if (EventLog.on(EventLog.GUI, EventLog.DEBUG)) {
+                EventLog.debug(EventLog.GUI, "repaint display step " + displayStep);
+            }
             Simulation.World_State drawState = state_history.get(displayStep-1);
-            //System.out.println(drawState);
-            sim.world.printNodes();
-    
+            if (EventLog.on(EventLog.GUI, EventLog.TRACE)) {
+                EventLog.trace(EventLog.GUI, drawState.counts.toString());
+            }
+
+            //the ring itself comes from the cached image, only the changed arcs are redrawn into it
             int centerX = getWidth() / 2;
             int centerY = getHeight() / 2;
             int radius = Math.min(getWidth(), getHeight()) / 2 - 20; // Radius of the outer circle
             int arcAngle = 360000 / drawState.counts.size(); // Each segment has equal size
-    
-            int startAngle = 0; // Starting angle for the first arc
-            //Map counts and owners to find the indexes of nodes which are surrounded by similar color nodes.
-            //Then when the size is large you can draw faces at those indexes.
-            for (int i = 0; i < drawState.counts.size(); i++) {
-                int count = drawState.counts.get(i);
-                Color c = drawState.owners.get(i);
-    
-                // Fill the arc with the specified color
-                g.setColor(c);
-                g.fillArc(centerX - radius, centerY - radius, 2 * radius, 2 * radius, startAngle/1000, (1000+arcAngle)/1000);
-    
-                // Calculate the midpoint angle of the arc to place the text
-                int midAngle = startAngle + arcAngle / 2;
-                double angleRad = Math.toRadians(midAngle/1000);
-                int textRadius = radius + 10; // Position text slightly outside the arc
-    
-                // Adjust text position based on the angle
-                int textX = centerX + (int) (textRadius * Math.cos(angleRad)) - g.getFontMetrics().stringWidth(String.valueOf(count)) / 2;
-                int textY = centerY - (int) (textRadius * Math.sin(angleRad)) + g.getFontMetrics().getHeight() / 4;
-                int text2X = centerX + (int) ((textRadius-25) * Math.cos(angleRad)) - g.getFontMetrics().stringWidth(String.valueOf(i)) / 2;
-                int text2Y = centerY - (int) ((textRadius-25) * Math.sin(angleRad)) + g.getFontMetrics().getHeight() / 4;
-    
-                // Draw the count value near the arc
-                g.setColor(Color.BLACK);
-                g.drawString(String.valueOf(count), textX, textY);
-                if (debug_mode) {
-                    g.drawString(String.valueOf(i), text2X, text2Y);
-                }
-                
-                // If count > 0, draw the GIF in the center of the arc
-                if ((!debug_mode) & (count > 0) & (wSize < 41) & (c != Color.GRAY)) {
-                    Image myFace = getFace(count, c);
-                    int gifX = centerX + (int) (radius * 0.9 * Math.cos(angleRad)) - myFace.getWidth(this) / 2;
-                    int gifY = centerY - (int) (radius * 0.9 * Math.sin(angleRad)) - myFace.getHeight(this) / 2;
-                    g.drawImage(myFace, gifX, gifY, this);
-                    
-                }
-    
-                // Update start angle for the next arc
-                startAngle += arcAngle;
-            }
-    
-            // Draw the white inner circle last, smaller than the outer circle
             int innerRadius = (int) (radius * 0.8); // 80% of the outer circle's radius
-            g.setColor(Color.WHITE);
-            g.fillOval(centerX - innerRadius, centerY - innerRadius, 2 * innerRadius, 2 * innerRadius);
+            boolean lod = lodRenderer.shouldUse(drawState, radius);
+            if (lod) {
+                //too many nodes for one arc each, or zoomed in
+                g.setColor(getBackground());
+                g.fillRect(0, 0, getWidth(), getHeight());
+                Graphics2D g2 = (Graphics2D) g;
+                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+                lodRenderer.render(g2, drawState, centerX, centerY, radius, innerRadius);
+            } else {
+                boolean drawFaces = (!debug_mode) & (wSize < 41);
+                Image ring = ringRenderer.render(drawState, getWidth(), getHeight(), getBackground(), g.getFont(), debug_mode, drawFaces, this::getFace, this);
+                g.drawImage(ring, 0, 0, this);
+            }
+
+            String stepS = Integer.toString(step);
+            String stepD = Integer.toString(displayStep);
+            g.setColor(Color.BLACK);
+            g.drawString("Last Game Step: " + stepS, 40, 33);
+            g.drawString("Current Display Step: " + stepD, 40, 43);
+            //g.drawImage(gifImage, 50, 75, this);
 
             //Draw the arrows for resolve direction
             int mySpot = 0;
@@ -1273,13 +1555,14 @@ public class COREapp extends JFrame {
             }
             int locangle = mySpot*arcAngle;
             double locangleRad = Math.toRadians(locangle/1000);
-            int ngifX = centerX + (int) (radius * 0.7 * Math.cos(locangleRad)) - counterclockwiseArrow.getWidth(this) / 2;
-            int ngifY = centerY - (int) (radius * 0.7 * Math.sin(locangleRad)) - counterclockwiseArrow.getHeight(this) / 2;
-            if (drawState.resolve_dir == 0 & drawState.step != 0) {
-                g.drawImage(clockwiseArrow, ngifX, ngifY, this);
+            if (lod) {
+                locangleRad = Math.toRadians(lodRenderer.angleOf(mySpot % drawState.counts.size()));
             }
-            if (drawState.resolve_dir == 1 & drawState.step != 0) {
-                g.drawImage(counterclockwiseArrow, ngifX, ngifY, this);
+            Image arrow = drawState.resolve_dir == 0 ? sprites.getClockwise() : sprites.getCounterclockwise();
+            if (arrow != null & drawState.step != 0 & !Double.isNaN(locangleRad)) {
+                int ngifX = centerX + (int) (radius * 0.7 * Math.cos(locangleRad)) - arrow.getWidth(this) / 2;
+                int ngifY = centerY - (int) (radius * 0.7 * Math.sin(locangleRad)) - arrow.getHeight(this) / 2;
+                g.drawImage(arrow, ngifX, ngifY, this);
             }
 
             if (drawState.victory & !singleMode) {
@@ -1289,24 +1572,40 @@ public class COREapp extends JFrame {
                         victor = s;
                     }
                 }
+                if (drawState.result != null && drawState.result.isDraw()) {
+                    g.setColor(Color.BLACK);
+                    g.drawString(drawState.result.toString(), 50, 250);
+                    return;
+                }
+                if (drawState.result != null) {
+                    victor = drawState.result.winner;
+                }
                 Color vicColor = agentLookup.get(victor).getColor();
                 g.setColor(vicColor);
                 g.fillOval(centerX - innerRadius, centerY - innerRadius, 2 * innerRadius, 2 * innerRadius);
                 Image vicFace = getFace(1000, vicColor);
                 //Image vicFace = vicFace1.getScaledInstance(100, 100,  java.awt.Image.SCALE_SMOOTH);
-                g.drawImage(vicFace, centerX, centerY, this);
+                if (vicFace != null) {
+                    g.drawImage(vicFace, centerX, centerY, this);
+                }
                 g.setColor(Color.BLACK);
                 g.drawString("Victor is : " + victor, 50, 250);
+                if (drawState.result != null) {
+                    g.drawString(drawState.result.toString(), 50, 270);
+                }
                 return;
             }
 
-            if ((!debug_mode) & (wSize > 40)) {
+            if ((!debug_mode) & (wSize > 40) & !lod) {
                 int minNodes = 1 + wSize / 40;
                 HashMap<Integer,Integer> locCount = findCenterIndicesAndSums(drawState,minNodes);
                 for (int x : locCount.keySet()) {
                     Color c = drawState.owners.get(x);
                     int count = locCount.get(x);
                     Image myFace = getFace(count, c);
+                    if (myFace == null) {
+                        continue;
+                    }
                     int myAngle = (x+1)*arcAngle/1000;
                     double myAngleRad = Math.toRadians(myAngle);
                     int gifX = centerX + (int) (radius * 0.9 * Math.cos(myAngleRad)) - myFace.getWidth(this) / 2;
@@ -1316,6 +1615,7 @@ public class COREapp extends JFrame {
                 
             }
             if (debug_mode) {
+                paintAgentOutput(g);
                 //System.out.println("DRAWSTATE SIZE: " + String.valueOf(drawState.moves.size()));
                 g.setColor(Color.RED);
                 g.drawString("   :::MOVEMENTS:::", 10, 60);
@@ -1323,12 +1623,13 @@ public class COREapp extends JFrame {
                     return;
                 }
                 int yy = 0;
-                for (Simulation.Movement move: drawState.moves) {
+                for (int m = 0; m < drawState.moves.size(); m++) {
                     g.setColor(Color.BLACK);
                     //System.out.println("DRAWSTATE Should print: " + move.change + String.valueOf(drawState.moves.size()));
                     //int aStart = sim.world.get_global_perspective(0,move.agent.locname);
-                    int aStart = move.agent.myStart;
-                    g.drawString("(" + String.valueOf(yy) + ") " + move.agent.locname + " places " + String.valueOf(move.change) + " at " + String.valueOf(move.loc) + " (+" + String.valueOf(aStart) + ")", 10, 70+(yy*10));
+                    Agent_Details mover = sim.agents[drawState.moves.agent(m)];
+                    int aStart = mover.myStart;
+                    g.drawString("(" + String.valueOf(yy) + ") " + mover.locname + " places " + String.valueOf(drawState.moves.change(m)) + " at " + String.valueOf(drawState.moves.loc(m)) + " (+" + String.valueOf(aStart) + ")", 10, 70+(yy*10));
                     yy++;
                 }
                 for (Agent_Details ag : sim.agents) {
@@ -1355,22 +1656,11 @@ public class COREapp extends JFrame {
     
     private void updateSimulation() {        
         //needs to check if display step < step
-        //this.step++;
-        sim.make_turn();
-        this.step = sim.step;
-        this.displayStep++; // = this.step;
-        //this.displayStep = this.step;
-        this.displaySuperStep = sim.step;
-        //this.superStep2Step.put(displaySuperStep,displayStep);
-        //System.out.println(this.step);
-        simdisplayPanel.repaint(); // Repaint the display panel to show the new state
-    }
-    
-    private void updateSimulationNoDisplay() {        
-        //needs to check if display step < step
-        this.step++;
-        sim.make_turn();
-        this.displayStep = this.step;
+        //asks the runner for one more turn, consumeSnapshots shows it once it's done
+        if (!this.advance_pending) {
+            this.advance_pending = true;
+            this.runner.request(1);
+        }
     }
 
     private void loadAgentsFromFile(String line) {
@@ -0,0 +1,54 @@
+import java.awt.Color;
+import java.util.HashMap;
+
+public class CheckLegalTest {
+    //Simulation.check_legal with moves that repeat or cancel out on one node. No test framework here:
+    //  javac -d . *.java && java -ea CheckLegalTest
+    public static void main(String[] args) {
+        Agent_Details red = new Agent_Details("Agent2", "red", "java", Color.RED);
+        Agent_Details blue = new Agent_Details("Agent2", "blue", "java", Color.BLUE);
+        HashMap<String, Agent_Details> lookup = new HashMap<>();
+        lookup.put("red", red);
+        lookup.put("blue", blue);
+        Simulation sim = new Simulation(20, new Agent_Details[]{red, blue}, 10000, 75, 5, 10, 5, lookup);
+
+        //more lines than the ring has nodes, all on node 0
+        MoveBuffer zeros = new MoveBuffer(4);
+        for (int m = 0; m < 30; m++) {
+            zeros.add(0, 0, 0);
+        }
+        check(sim.check_legal(red, zeros, 5), "repeated 0,0 moves are legal");
+
+        //+1 then -1 on the same node, over and over, adds up to nothing
+        MoveBuffer cancelling = new MoveBuffer(4);
+        for (int m = 0; m < 30; m++) {
+            cancelling.add(0, 1, 0);
+            cancelling.add(0, -1, 0);
+        }
+        check(sim.check_legal(red, cancelling, 5), "cancelling moves on an owned node are legal");
+
+        //the same on blue's node is still nothing taken from blue
+        MoveBuffer opponent = new MoveBuffer(4);
+        int blueNode = Math.floorMod(blue.myStart - red.myStart, 20);
+        for (int m = 0; m < 30; m++) {
+            opponent.add(blueNode, 3, 0);
+            opponent.add(blueNode, -3, 0);
+        }
+        check(sim.check_legal(red, opponent, 5), "cancelling moves on an opponent's node are legal");
+
+        //nothing left over from the calls above
+        MoveBuffer place = new MoveBuffer(1);
+        place.add(0, 5, 0);
+        check(sim.check_legal(red, place, 5), "placing all new soldiers afterwards is legal");
+        MoveBuffer take = new MoveBuffer(1);
+        take.add(blueNode, -1, 0);
+        check(!sim.check_legal(red, take, 5), "removing from an opponent afterwards is illegal");
+        System.out.println("CheckLegalTest passed");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            throw new AssertionError(what);
+        }
+    }
+}
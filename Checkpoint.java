@@ -0,0 +1,598 @@
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Checkpoint {
+    //Everything needed to carry on a match: settings, agents and their start offsets, step, the random
+    //generator, the ring (a RingStore, so it is never copied onto the heap whole), the stats, the early end state and the newest snapshots in state_history.
+    //capture() copies what it needs on the simulation thread, after that the object never changes and is
+    //written out on a background thread. Files are one flat binary block, written and read back in CHUNK
+    //sized pieces so their size isn't limited by what can be mapped.
+    private static final int MAGIC = 0x52574350; //"RWCP"
+    private static final int VERSION = 3;
+    private static final int CHUNK = 1 << 20;
+    public static final long HISTORY_BYTES = 256L << 20; //ring bytes of snapshots kept, newest first
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public final int scale;
+    public final int max_soldiers;
+    public final int visibility_range;
+    public final double fixedGrowthperTurn;
+    public final double ownershipBonusGrowth;
+    public final int step;
+    public final long seed;
+    public final int starting_soldiers;
+    public final String[] agentFiles;
+    public final String[] agentNames;
+    public final String[] agentLangs;
+    public final int[] agentColors;
+    public final int[] agentStarts;
+    private final byte[] rand;        //the serialized java.util.Random, the only way to get at its seed
+    private final RingStore ring;     //owner id 0 is unowned, a + 1 is agent a
+    private final Snapshot[] history;
+    private final MatchResult result;
+    private final int[] statSteps;
+    private final long[][][] statRows;  //[row][agent][column], shared with MatchStats
+    private final int repeat_limit;
+    private final int stalemate_turns;
+    private final int adjudication;
+    private final long[] recentKeys;    //oldest first
+    private final int unchangedTurns;
+
+    //One retained World_State, in the same owner id form.
+    private static class Snapshot {
+        int step;
+        int resolve_dir;
+        int resolve_start;
+        boolean victory;
+        long hash;
+        int[] moves; //loc, change, agent index triples
+        int[] counts;
+        byte[] owners;
+        MatchResult result;
+    }
+
+    private Checkpoint(int scale, int max_soldiers, int visibility_range, double fixedGrowthperTurn, double ownershipBonusGrowth, int step,
+                       long seed, int starting_soldiers, String[] agentFiles, String[] agentNames, String[] agentLangs, int[] agentColors, int[] agentStarts,
+                       byte[] rand, RingStore ring, Snapshot[] history, MatchResult result, int[] statSteps, long[][][] statRows,
+                       int repeat_limit, int stalemate_turns, int adjudication, long[] recentKeys, int unchangedTurns) {
+        this.scale = scale;
+        this.max_soldiers = max_soldiers;
+        this.visibility_range = visibility_range;
+        this.fixedGrowthperTurn = fixedGrowthperTurn;
+        this.ownershipBonusGrowth = ownershipBonusGrowth;
+        this.step = step;
+        this.seed = seed;
+        this.starting_soldiers = starting_soldiers;
+        this.agentFiles = agentFiles;
+        this.agentNames = agentNames;
+        this.agentLangs = agentLangs;
+        this.agentColors = agentColors;
+        this.agentStarts = agentStarts;
+        this.rand = rand;
+        this.ring = ring;
+        this.history = history;
+        this.result = result;
+        this.statSteps = statSteps;
+        this.statRows = statRows;
+        this.repeat_limit = repeat_limit;
+        this.stalemate_turns = stalemate_turns;
+        this.adjudication = adjudication;
+        this.recentKeys = recentKeys;
+        this.unchangedTurns = unchangedTurns;
+    }
+
+    //The serialized Random, the only way to get at its seed.
+    static byte[] randomState(Random rand) {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(); ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rand);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Random could not be serialized", e);
+        }
+    }
+
+    //Copies the match as it is between turns. Must be called on the thread that runs make_turn.
+    public static Checkpoint capture(Simulation sim) {
+        int a = sim.agents.length;
+        String[] files = new String[a];
+        String[] names = new String[a];
+        String[] langs = new String[a];
+        int[] colors = new int[a];
+        int[] starts = new int[a];
+        for (int i = 0; i < a; i++) {
+            Agent_Details ad = sim.agents[i];
+            files[i] = ad.filename;
+            names[i] = ad.locname;
+            langs[i] = ad.lang;
+            colors[i] = ad.color.getRGB();
+            starts[i] = ad.myStart;
+        }
+        int n = sim.world.nodes.size();
+        RingStore ring = sim.world.frozenRing(); //the world numbers owners the same way, a + 1 for sim.agents[a]
+        //snapshots are immutable already, only their arrays are copied out, and only the newest that fit
+        //in HISTORY_BYTES; the last one is always kept
+        int size = sim.state_history.size();
+        Snapshot[] history = new Snapshot[(int) Math.min(size, Math.max(1, HISTORY_BYTES / (5L * n)))];
+        for (int h = 0; h < history.length; h++) {
+            Simulation.World_State ws = sim.state_history.get(size - history.length + h);
+            Snapshot s = new Snapshot();
+            s.step = ws.step;
+            s.resolve_dir = ws.resolve_dir;
+            s.resolve_start = ws.resolve_start;
+            s.victory = ws.victory;
+            s.hash = ws.hash;
+            s.moves = new int[ws.moves.size() * 3];
+            for (int m = 0; m < ws.moves.size(); m++) {
+                s.moves[3 * m] = ws.moves.loc(m);
+                s.moves[3 * m + 1] = ws.moves.change(m);
+                s.moves[3 * m + 2] = ws.moves.agent(m);
+            }
+            s.counts = ws.countArray();
+            s.owners = ws.ownerIdArray();
+            s.result = ws.result;
+            history[h] = s;
+        }
+        byte[] rand = randomState(sim.rand);
+        return new Checkpoint(sim.world.numNodes, sim.max_soldiers, sim.visibility_range, sim.fixedGrowthperTurn, sim.ownershipBonusGrowth, sim.step,
+                sim.seed, sim.starting_soldiers, files, names, langs, colors, starts, rand, ring, history, sim.result,
+                sim.stats.steps(), sim.stats.rows(), sim.repeat_limit, sim.stalemate_turns, sim.adjudication, sim.recentKeys(), sim.unchangedTurns());
+    }
+
+    //Writes this checkpoint to filename on the background writer. The file is replaced in one step,
+    //so a crash while writing leaves the previous checkpoint in place.
+    public Future<?> writeInBackground(String filename) {
+        return WRITER.submit(() -> {
+            try {
+                this.write(filename);
+                if (EventLog.on(EventLog.ENGINE, EventLog.INFO)) {
+                    EventLog.info(EventLog.ENGINE, "Checkpoint of step " + this.step + " written to " + filename);
+                }
+            } catch (IOException e) {
+                EventLog.error(EventLog.ENGINE, "Failed to write checkpoint " + filename + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public void write(String filename) throws IOException {
+        Path target = Paths.get(filename);
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = Paths.get(filename + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(ch);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(this.scale);
+            out.putInt(this.max_soldiers);
+            out.putInt(this.visibility_range);
+            out.putDouble(this.fixedGrowthperTurn);
+            out.putDouble(this.ownershipBonusGrowth);
+            out.putInt(this.step);
+            out.putLong(this.seed);
+            out.putInt(this.starting_soldiers);
+            out.putInt(this.agentNames.length);
+            for (int a = 0; a < this.agentNames.length; a++) {
+                out.putString(this.agentFiles[a]);
+                out.putString(this.agentNames[a]);
+                out.putString(this.agentLangs[a]);
+                out.putInt(this.agentColors[a]);
+                out.putInt(this.agentStarts[a]);
+            }
+            out.putBytes(this.rand);
+            out.putRing(this.ring);
+            out.putInt(this.history.length);
+            for (Snapshot s : this.history) {
+                out.putInt(s.step);
+                out.putInt(s.resolve_dir);
+                out.putInt(s.resolve_start);
+                out.putInt(s.victory ? 1 : 0);
+                out.putLong(s.hash);
+                out.putInts(s.moves);
+                out.putInts(s.counts);
+                out.putBytes(s.owners);
+                out.putResult(s.result);
+            }
+            out.putResult(this.result);
+            out.putInts(this.statSteps);
+            for (long[][] row : this.statRows) {
+                for (long[] agent : row) {
+                    for (long v : agent) {
+                        out.putLong(v);
+                    }
+                }
+            }
+            out.putInt(this.repeat_limit);
+            out.putInt(this.stalemate_turns);
+            out.putInt(this.adjudication);
+            out.putInt(this.recentKeys.length);
+            for (long key : this.recentKeys) {
+                out.putLong(key);
+            }
+            out.putInt(this.unchangedTurns);
+            out.flush();
+            ch.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Throws IOException for anything that isn't a whole, well formed checkpoint.
+    public static Checkpoint read(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            In in = new In(ch);
+            if (ch.size() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a checkpoint file: " + filename);
+            }
+            int scale = in.getInt();
+            int max_soldiers = in.getInt();
+            int visibility_range = in.getInt();
+            double fixedGrowthperTurn = in.getDouble();
+            double ownershipBonusGrowth = in.getDouble();
+            int step = in.getInt();
+            long seed = in.getLong();
+            int starting_soldiers = in.getInt();
+            int a = in.getLength(1);
+            String[] files = new String[a];
+            String[] names = new String[a];
+            String[] langs = new String[a];
+            int[] colors = new int[a];
+            int[] starts = new int[a];
+            for (int i = 0; i < a; i++) {
+                files[i] = in.getString();
+                names[i] = in.getString();
+                langs[i] = in.getString();
+                colors[i] = in.getInt();
+                starts[i] = in.getInt();
+            }
+            byte[] rand = in.getBytes();
+            RingStore ring = in.getRing(scale, a);
+            Snapshot[] history = new Snapshot[in.getLength(1)];
+            for (int h = 0; h < history.length; h++) {
+                Snapshot s = new Snapshot();
+                s.step = in.getInt();
+                s.resolve_dir = in.getInt();
+                s.resolve_start = in.getInt();
+                s.victory = in.getInt() != 0;
+                s.hash = in.getLong();
+                s.moves = in.getInts();
+                s.counts = in.getInts();
+                s.owners = in.getBytes();
+                s.result = in.getResult();
+                if (s.counts.length != scale || s.owners.length != scale || s.moves.length % 3 != 0) {
+                    throw new IOException("Corrupt checkpoint: snapshot of step " + s.step + " doesn't match the ring");
+                }
+                history[h] = s;
+            }
+            MatchResult result = in.getResult();
+            int[] statSteps = in.getInts();
+            long[][][] statRows = new long[statSteps.length][a][MatchStats.COLUMNS.length];
+            for (long[][] row : statRows) {
+                for (long[] agent : row) {
+                    for (int c = 0; c < agent.length; c++) {
+                        agent[c] = in.getLong();
+                    }
+                }
+            }
+            int repeat_limit = in.getInt();
+            int stalemate_turns = in.getInt();
+            int adjudication = in.getInt();
+            long[] recentKeys = new long[in.getLength(8)];
+            for (int k = 0; k < recentKeys.length; k++) {
+                recentKeys[k] = in.getLong();
+            }
+            int unchangedTurns = in.getInt();
+            return new Checkpoint(scale, max_soldiers, visibility_range, fixedGrowthperTurn, ownershipBonusGrowth, step,
+                    seed, starting_soldiers, files, names, langs, colors, starts, rand, ring, history, result,
+                    statSteps, statRows, repeat_limit, stalemate_turns, adjudication, recentKeys, unchangedTurns);
+        }
+    }
+
+    //Rebuilds the simulation. Agents already in agentLookup (by folder name) are reused, the rest are
+    //created from the checkpoint and added to it.
+    public Simulation restore(HashMap<String, Agent_Details> agentLookup) {
+        Agent_Details[] agents = new Agent_Details[this.agentNames.length];
+        for (int a = 0; a < agents.length; a++) {
+            agents[a] = agentLookup.get(this.agentNames[a]);
+            if (agents[a] == null) {
+                agents[a] = new Agent_Details(this.agentFiles[a], this.agentNames[a], this.agentLangs[a], new Color(this.agentColors[a], true));
+                agentLookup.put(this.agentNames[a], agents[a]);
+            }
+        }
+        Random rand;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(this.rand))) {
+            rand = (Random) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Checkpoint holds an unreadable Random", e);
+        }
+        World world = new World(this.scale, this.max_soldiers, 0, this.visibility_range, agents, agentLookup);
+        world.load(this.ring, this.agentNames);
+        for (int a = 0; a < agents.length; a++) {
+            agents[a].myStart = this.agentStarts[a];
+            world.perspectives.put(agents[a].locname, this.agentStarts[a]);
+        }
+        Simulation sim = new Simulation(this.scale, agents, this.max_soldiers, this.visibility_range, this.fixedGrowthperTurn, this.ownershipBonusGrowth,
+                agentLookup, world, this.step, rand);
+        sim.seed = this.seed;
+        sim.starting_soldiers = this.starting_soldiers;
+        sim.result = this.result;
+        sim.stats.load(this.statSteps, this.statRows);
+        sim.repeat_limit = this.repeat_limit;
+        sim.stalemate_turns = this.stalemate_turns;
+        sim.adjudication = this.adjudication;
+        sim.restoreEarlyEnd(this.recentKeys, this.unchangedTurns);
+        sim.state_history.clear();
+        for (Snapshot s : this.history) {
+            MoveBuffer moves = new MoveBuffer(s.moves.length / 3);
+            for (int m = 0; m < s.moves.length; m += 3) {
+                moves.add(s.moves[m], s.moves[m + 1], s.moves[m + 2]);
+            }
+            sim.state_history.add(sim.new World_State(s.step, s.counts, s.owners, s.hash, moves, s.victory, sim.active_agents, s.resolve_dir, s.resolve_start, s.result));
+        }
+        if (sim.state_history.isEmpty()) {
+            sim.state_history.add(sim.snapshot());
+        }
+        return sim;
+    }
+
+    //Buffered writes to the channel in big chunks.
+    private static class Out {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK);
+
+        Out(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        private void room(int bytes) throws IOException {
+            if (this.buf.remaining() < bytes) {
+                this.flush();
+            }
+        }
+
+        void flush() throws IOException {
+            this.buf.flip();
+            while (this.buf.hasRemaining()) {
+                this.ch.write(this.buf);
+            }
+            this.buf.clear();
+        }
+
+        void putInt(int v) throws IOException {
+            this.room(4);
+            this.buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            this.room(8);
+            this.buf.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            this.room(8);
+            this.buf.putDouble(v);
+        }
+
+        void putString(String s) throws IOException {
+            this.putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        //A flag, then step, winner (flagged, null for a draw) and reason.
+        void putResult(MatchResult r) throws IOException {
+            this.putInt(r == null ? 0 : 1);
+            if (r != null) {
+                this.putInt(r.step);
+                this.putInt(r.winner == null ? 0 : 1);
+                this.putString(r.winner == null ? "" : r.winner);
+                this.putString(r.reason);
+            }
+        }
+
+        void putBytes(byte[] b) throws IOException {
+            this.putInt(b.length);
+            this.putRaw(b, b.length);
+        }
+
+        void putInts(int[] v) throws IOException {
+            this.putInt(v.length);
+            this.putRaw(v, v.length);
+        }
+
+        //The first count values of v, without a length.
+        void putRaw(int[] v, int count) throws IOException {
+            int off = 0;
+            while (off < count) {
+                this.room(4);
+                int len = Math.min(this.buf.remaining() / 4, count - off);
+                this.buf.asIntBuffer().put(v, off, len);
+                this.buf.position(this.buf.position() + 4 * len);
+                off += len;
+            }
+        }
+
+        void putRaw(byte[] b, int count) throws IOException {
+            int off = 0;
+            while (off < count) {
+                this.room(1);
+                int len = Math.min(this.buf.remaining(), count - off);
+                this.buf.put(b, off, len);
+                off += len;
+            }
+        }
+
+        //The same bytes as putInts of the soldier counts and putBytes of the owner ids, taken from the store
+        //a CHUNK at a time.
+        void putRing(RingStore ring) throws IOException {
+            int[] soldiers = new int[CHUNK / 4];
+            this.putInt(ring.size);
+            for (int i = 0; i < ring.size; i += soldiers.length) {
+                int len = Math.min(soldiers.length, ring.size - i);
+                ring.copySoldiers(i, soldiers, len);
+                this.putRaw(soldiers, len);
+            }
+            byte[] owners = new byte[CHUNK];
+            this.putInt(ring.size);
+            for (int i = 0; i < ring.size; i += owners.length) {
+                int len = Math.min(owners.length, ring.size - i);
+                ring.copyOwners(i, owners, len);
+                this.putRaw(owners, len);
+            }
+        }
+    }
+
+    //Buffered reads from the channel in CHUNK sized pieces, the mirror of Out. A file that ends early or
+    //holds a length longer than what is left of it is an IOException, never a buffer exception.
+    private static class In {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK);
+
+        In(FileChannel ch) {
+            this.buf.flip();
+            this.ch = ch;
+        }
+
+        private void need(int bytes) throws IOException {
+            if (this.buf.remaining() >= bytes) {
+                return;
+            }
+            this.buf.compact();
+            while (this.buf.position() < bytes) {
+                if (this.ch.read(this.buf) < 0) {
+                    throw new EOFException("Checkpoint ends early");
+                }
+            }
+            this.buf.flip();
+        }
+
+        private long left() throws IOException {
+            return this.ch.size() - this.ch.position() + this.buf.remaining();
+        }
+
+        int getInt() throws IOException {
+            this.need(4);
+            return this.buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            this.need(8);
+            return this.buf.getLong();
+        }
+
+        double getDouble() throws IOException {
+            this.need(8);
+            return this.buf.getDouble();
+        }
+
+        //A count of things of at least size bytes each, checked against what is left of the file.
+        int getLength(int size) throws IOException {
+            int length = this.getInt();
+            if (length < 0 || (long) length * size > this.left()) {
+                throw new IOException("Corrupt checkpoint: bad length " + length);
+            }
+            return length;
+        }
+
+        String getString() throws IOException {
+            return new String(this.getBytes(), StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes() throws IOException {
+            byte[] b = new byte[this.getLength(1)];
+            this.getRaw(b, b.length);
+            return b;
+        }
+
+        int[] getInts() throws IOException {
+            int[] v = new int[this.getLength(4)];
+            this.getRaw(v, v.length);
+            return v;
+        }
+
+        void getRaw(int[] v, int count) throws IOException {
+            int off = 0;
+            while (off < count) {
+                this.need(4);
+                int len = Math.min(this.buf.remaining() / 4, count - off);
+                this.buf.asIntBuffer().get(v, off, len);
+                this.buf.position(this.buf.position() + 4 * len);
+                off += len;
+            }
+        }
+
+        void getRaw(byte[] b, int count) throws IOException {
+            int off = 0;
+            while (off < count) {
+                this.need(1);
+                int len = Math.min(this.buf.remaining(), count - off);
+                this.buf.get(b, off, len);
+                off += len;
+            }
+        }
+
+        //What putRing wrote, into a new store of its own, a CHUNK at a time.
+        RingStore getRing(int scale, int agents) throws IOException {
+            if (this.getLength(5) != scale) {
+                throw new IOException("Corrupt checkpoint: ring doesn't have " + scale + " nodes");
+            }
+            RingStore ring = RingStore.unmapped(scale);
+            int[] soldiers = new int[CHUNK / 4];
+            for (int i = 0; i < scale; i += soldiers.length) {
+                int len = Math.min(soldiers.length, scale - i);
+                this.getRaw(soldiers, len);
+                for (int k = 0; k < len; k++) {
+                    ring.set(i + k, soldiers[k], 0);
+                }
+            }
+            if (this.getLength(1) != scale) {
+                throw new IOException("Corrupt checkpoint: ring doesn't have " + scale + " owners");
+            }
+            byte[] owners = new byte[CHUNK];
+            for (int i = 0; i < scale; i += owners.length) {
+                int len = Math.min(owners.length, scale - i);
+                this.getRaw(owners, len);
+                for (int k = 0; k < len; k++) {
+                    if (owners[k] < 0 || owners[k] > agents) {
+                        throw new IOException("Corrupt checkpoint: node " + (i + k) + " has owner id " + owners[k]);
+                    }
+                    ring.set(i + k, ring.soldiers(i + k), owners[k]);
+                }
+            }
+            return ring;
+        }
+
+        MatchResult getResult() throws IOException {
+            if (this.getInt() == 0) {
+                return null;
+            }
+            int step = this.getInt();
+            boolean won = this.getInt() != 0;
+            String winner = this.getString();
+            return new MatchResult(step, won ? winner : null, this.getString());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+public final class EventLog {
+    //Leveled per-subsystem logging for the hot paths of the engine and the GUI.
+    //Callers check on() before building a message so a disabled level costs one array read.
+    //Messages go into a lock-free ring buffer and a background thread writes them to the console, errors to stderr,
+    //so the simulation never blocks on console I/O. When the buffer is full new messages are dropped and counted.
+    //Levels can be set with -Dringwars.log=engine=debug,moves=trace,gui=off
+
+    public static final int OFF = 0;
+    public static final int ERROR = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    public static final int TRACE = 4;
+
+    public static final int ENGINE = 0; //turn loop, state files, resolve
+    public static final int AGENT = 1;  //agent processes and their output
+    public static final int MOVES = 2;  //move parsing and legality
+    public static final int GUI = 3;    //display panel
+    private static final String[] SUBSYSTEMS = {"engine", "agent", "moves", "gui"};
+    private static final String[] LEVELS = {"off", "error", "info", "debug", "trace"};
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
+    //replaced, never written in place, so a level set on the GUI thread is seen by every other thread
+    private static volatile int[] levels = {INFO, INFO, INFO, INFO};
+    private static final AtomicReferenceArray<Line> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong head = new AtomicLong(); //next slot a producer will claim
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile long tail = 0; //next slot the flusher will read, only written by the flusher
+    private static final PrintStream out = System.out;
+    private static final PrintStream err = System.err;
+
+    private record Line(String text, boolean error) {}
+
+    static {
+        configure(System.getProperty("ringwars.log", ""));
+        Thread flusher = new Thread(EventLog::flushLoop, "EventLog-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(EventLog::drain));
+    }
+
+    private EventLog() {}
+
+    public static boolean on(int subsystem, int level) {
+        return level <= levels[subsystem];
+    }
+
+    public static synchronized void setLevel(int subsystem, int level) {
+        int[] next = levels.clone();
+        next[subsystem] = level;
+        levels = next;
+    }
+
+    public static int getLevel(int subsystem) {
+        return levels[subsystem];
+    }
+
+    //Parses "subsystem=level" pairs separated by commas. "all=level" sets every subsystem.
+    public static synchronized void configure(String spec) {
+        int[] next = levels.clone();
+        for (String pair : spec.split(",")) {
+            String[] parts = pair.trim().split("=");
+            if (parts.length != 2) {
+                continue;
+            }
+            int level = indexOf(LEVELS, parts[1].trim().toLowerCase());
+            if (level < 0) {
+                continue;
+            }
+            String name = parts[0].trim().toLowerCase();
+            for (int s = 0; s < SUBSYSTEMS.length; s++) {
+                if (name.equals("all") || name.equals(SUBSYSTEMS[s])) {
+                    next[s] = level;
+                }
+            }
+        }
+        levels = next;
+    }
+
+    public static void log(int subsystem, int level, String message) {
+        if (!on(subsystem, level)) {
+            return;
+        }
+        String line = level == INFO ? message : "[" + SUBSYSTEMS[subsystem] + " " + LEVELS[level] + "] " + message;
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        slots.lazySet((int) (seq & MASK), new Line(line, level == ERROR));
+    }
+
+    public static void error(int subsystem, String message) {
+        log(subsystem, ERROR, message);
+    }
+
+    public static void info(int subsystem, String message) {
+        log(subsystem, INFO, message);
+    }
+
+    public static void debug(int subsystem, String message) {
+        log(subsystem, DEBUG, message);
+    }
+
+    public static void trace(int subsystem, String message) {
+        log(subsystem, TRACE, message);
+    }
+
+    private static void flushLoop() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(2_000_000L);
+            }
+        }
+    }
+
+    //Writes everything that has been published so far. Returns false if there was nothing to write.
+    private static synchronized boolean drain() {
+        boolean wrote = false;
+        long t = tail;
+        while (t < head.get()) {
+            int idx = (int) (t & MASK);
+            Line line = slots.get(idx);
+            if (line == null) {
+                break; //claimed but not yet published
+            }
+            slots.set(idx, null);
+            if (line.error()) {
+                out.flush(); //keep the order of lines on a console showing both
+                err.println(line.text());
+            } else {
+                out.println(line.text());
+            }
+            t++;
+            tail = t;
+            wrote = true;
+        }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            out.println("[log] dropped " + lost + " messages");
+        }
+        if (wrote) {
+            out.flush();
+            err.flush();
+        }
+        return wrote;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
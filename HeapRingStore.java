@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+public class HeapRingStore extends RingStore {
+    //The ring on the Java heap, kept in fixed-size chunks that forks share
+    //copy-on-write. fork() only copies the two chunk tables; whichever side first writes to a shared chunk
+    //copies that one chunk. So a fork costs about size / CHUNK pointers plus the chunks it actually touches.
+    //A store and each of its forks may be written by different threads. Any number of threads may fork a
+    //store at the same time, as long as nothing is writing to that store meanwhile.
+    public static final int CHUNK_SHIFT = 10;
+    public static final int CHUNK = 1 << CHUNK_SHIFT;
+    private static final int MASK = CHUNK - 1;
+
+    private final int[][] soldiers;
+    private final byte[][] owners; //0 is unowned, see World for the rest
+    private final boolean[] mine;  //chunks this store may write in place, all others are shared
+
+    public HeapRingStore(int size) {
+        super(size);
+        int chunks = (size + MASK) >>> CHUNK_SHIFT;
+        this.soldiers = new int[chunks][];
+        this.owners = new byte[chunks][];
+        this.mine = new boolean[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int len = Math.min(CHUNK, size - (c << CHUNK_SHIFT));
+            this.soldiers[c] = new int[len];
+            this.owners[c] = new byte[len];
+            this.mine[c] = true;
+        }
+    }
+
+    private HeapRingStore(HeapRingStore from) {
+        super(from.size);
+        this.soldiers = from.soldiers.clone();
+        this.owners = from.owners.clone();
+        this.mine = new boolean[from.mine.length];
+    }
+
+    public RingStore fork() {
+        //from now on every chunk is shared, the parent has to copy before writing as well
+        Arrays.fill(this.mine, false);
+        return new HeapRingStore(this);
+    }
+
+    public int soldiers(int i) {
+        return this.soldiers[i >>> CHUNK_SHIFT][i & MASK];
+    }
+
+    public int owner(int i) {
+        return this.owners[i >>> CHUNK_SHIFT][i & MASK];
+    }
+
+    public void set(int i, int soldiers, int owner) {
+        int c = i >>> CHUNK_SHIFT;
+        if (!this.mine[c]) {
+            this.soldiers[c] = this.soldiers[c].clone();
+            this.owners[c] = this.owners[c].clone();
+            this.mine[c] = true;
+        }
+        this.soldiers[c][i & MASK] = soldiers;
+        this.owners[c][i & MASK] = (byte) owner;
+    }
+
+    public int ownedChunks() {
+        int owned = 0;
+        for (boolean m : this.mine) {
+            if (m) {
+                owned++;
+            }
+        }
+        return owned;
+    }
+
+    protected int nextContestedIn(int from, int to) {
+        int j = from;
+        while (j < to) {
+            int c = j >>> CHUNK_SHIFT;
+            byte[] o = this.owners[c];
+            int base = c << CHUNK_SHIFT;
+            //pairs inside this chunk, then the one across into the next
+            int last = Math.min(to, base + o.length - 1);
+            if (j < last) {
+                int k = RingScan.SCAN.nextContested(o, j - base, last - base);
+                if (k < last - base) {
+                    return base + k;
+                }
+                j = last;
+            }
+            if (j < to) {
+                if (RingScan.contested(o[o.length - 1], this.owners[c + 1][0])) {
+                    return j;
+                }
+                j++;
+            }
+        }
+        return to;
+    }
+
+    protected int prevContestedIn(int from, int low) {
+        int j = from;
+        while (j > low) {
+            int c = j >>> CHUNK_SHIFT;
+            byte[] o = this.owners[c];
+            int base = c << CHUNK_SHIFT;
+            if (j - base == o.length - 1) {
+                //the pair across into the next chunk
+                if (RingScan.contested(o[o.length - 1], this.owners[c + 1][0])) {
+                    return j;
+                }
+                j--;
+                continue;
+            }
+            int stop = Math.max(low, base - 1);
+            int k = RingScan.SCAN.prevContested(o, j - base, stop - base);
+            if (k > stop - base) {
+                return base + k;
+            }
+            j = stop;
+        }
+        return low;
+    }
+
+    public void copySoldiers(int[] dst) {
+        for (int c = 0; c < this.soldiers.length; c++) {
+            System.arraycopy(this.soldiers[c], 0, dst, c << CHUNK_SHIFT, this.soldiers[c].length);
+        }
+    }
+
+    public void copySoldiers(int from, int[] dst, int len) {
+        for (int i = from; i < from + len; ) {
+            int c = i >>> CHUNK_SHIFT;
+            int take = Math.min(this.soldiers[c].length - (i & MASK), from + len - i);
+            System.arraycopy(this.soldiers[c], i & MASK, dst, i - from, take);
+            i += take;
+        }
+    }
+
+    public void copyOwners(int from, byte[] dst, int len) {
+        for (int i = from; i < from + len; ) {
+            int c = i >>> CHUNK_SHIFT;
+            int take = Math.min(this.owners[c].length - (i & MASK), from + len - i);
+            System.arraycopy(this.owners[c], i & MASK, dst, i - from, take);
+            i += take;
+        }
+    }
+
+    public void copyOwners(byte[] dst) {
+        for (int c = 0; c < this.owners.length; c++) {
+            System.arraycopy(this.owners[c], 0, dst, c << CHUNK_SHIFT, this.owners[c].length);
+        }
+    }
+}
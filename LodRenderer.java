@@ -0,0 +1,131 @@
+import java.awt.*;
+
+public class LodRenderer {
+    //Level-of-detail ring drawing for rings with more nodes than there are pixels around the circle,
+    //and for zoomed-in views. The visible range of the ring is spread over the full circle and cut into
+    //angular buckets about one pixel wide. Each bucket is coloured by its majority owner, using the
+    //snapshot's RingSummary so a frame never rescans the ring. Labels are only drawn where they fit.
+    private static final double MIN_VIEW = 8; //never zoom in further than this many nodes around the circle
+    private static final int LABEL_PIXELS = 40; //room one soldier-count label needs along the circumference
+
+    private double viewStart; //first node shown at angle 0, may be fractional while panning
+    private double viewLen;   //nodes spread over the full circle
+    private int n;
+    private final RingSummary.Bucket bucket = new RingSummary.Bucket();
+    private Simulation.World_State small_state; //a snapshot too small to carry a summary, zoomed into
+    private RingSummary small_summary;          //and the summary made for it here
+
+    public void reset(int size) {
+        this.n = size;
+        this.viewStart = 0;
+        this.viewLen = size;
+    }
+
+    public boolean isZoomed() {
+        return this.viewLen < this.n;
+    }
+
+    //LOD is used when zoomed in, or when the whole ring has more nodes than pixels around it.
+    public boolean shouldUse(Simulation.World_State ws, int radius) {
+        if (ws.size() != this.n) {
+            this.reset(ws.size());
+        }
+        return this.isZoomed() || (ws.summary() != null && this.n > 2 * Math.PI * radius);
+    }
+
+    //Rings under RingSummary.MIN_NODES have no summary of their own. Zoomed into one, make one here;
+    //it takes a single pass over at most a few thousand nodes, once per snapshot shown.
+    private RingSummary summaryOf(Simulation.World_State ws) {
+        RingSummary summary = ws.summary();
+        if (summary != null) {
+            return summary;
+        }
+        if (ws != this.small_state) {
+            this.small_summary = new RingSummary(ws.countArray(), ws.ownerIdArray(), ws.palette());
+            this.small_state = ws;
+        }
+        return this.small_summary;
+    }
+
+    //Zooms by factor (<1 zooms in) keeping the node under angleDeg fixed.
+    public void zoom(double factor, double angleDeg) {
+        double frac = angleDeg / 360.0;
+        double anchor = this.viewStart + frac * this.viewLen;
+        this.viewLen = Math.max(Math.min(this.viewLen * factor, this.n), Math.min(MIN_VIEW, this.n));
+        this.viewStart = this.viewLen >= this.n ? 0 : anchor - frac * this.viewLen;
+    }
+
+    //Rotates the view by a drag of deltaDeg degrees.
+    public void pan(double deltaDeg) {
+        if (!this.isZoomed()) {
+            return;
+        }
+        this.viewStart = this.viewStart - deltaDeg / 360.0 * this.viewLen;
+    }
+
+    //Angle in degrees at which node i is drawn, or NaN when it is outside the view.
+    public double angleOf(int i) {
+        double off = ((i - this.viewStart) % this.n + this.n) % this.n;
+        if (off >= this.viewLen) {
+            return Double.NaN;
+        }
+        return off / this.viewLen * 360.0;
+    }
+
+    public void render(Graphics2D g, Simulation.World_State ws, int centerX, int centerY, int radius, int innerRadius) {
+        RingSummary summary = this.summaryOf(ws);
+        int pixels = (int) Math.max(1, 2 * Math.PI * radius);
+        int buckets = (int) Math.min(pixels, Math.ceil(this.viewLen));
+        double nodesPerBucket = this.viewLen / buckets;
+        double degPerBucket = 360.0 / buckets;
+        //each bucket is a thin quad of the band between the inner circle and the rim, much cheaper than a pie arc
+        int[] xs = new int[4];
+        int[] ys = new int[4];
+        double prevCos = 1;
+        double prevSin = 0;
+        for (int b = 0; b < buckets; b++) {
+            long from = (long) Math.floor(this.viewStart + b * nodesPerBucket);
+            long to = Math.max(from + 1, (long) Math.floor(this.viewStart + (b + 1) * nodesPerBucket));
+            summary.query(from, to, this.bucket);
+            double next = Math.toRadians((b + 1) * degPerBucket);
+            double nextCos = Math.cos(next);
+            double nextSin = Math.sin(next);
+            xs[0] = centerX + (int) Math.round(innerRadius * prevCos);
+            ys[0] = centerY - (int) Math.round(innerRadius * prevSin);
+            xs[1] = centerX + (int) Math.round(radius * prevCos);
+            ys[1] = centerY - (int) Math.round(radius * prevSin);
+            xs[2] = centerX + (int) Math.round(radius * nextCos);
+            ys[2] = centerY - (int) Math.round(radius * nextSin);
+            xs[3] = centerX + (int) Math.round(innerRadius * nextCos);
+            ys[3] = centerY - (int) Math.round(innerRadius * nextSin);
+            g.setColor(summary.palette[this.bucket.majority()]);
+            g.fillPolygon(xs, ys, 4);
+            g.drawPolygon(xs, ys, 4); //closes the hairline gaps between neighbouring quads
+            prevCos = nextCos;
+            prevSin = nextSin;
+        }
+
+        // Draw the white inner circle last, smaller than the outer circle
+        g.setColor(Color.WHITE);
+        g.fillOval(centerX - innerRadius, centerY - innerRadius, 2 * innerRadius, 2 * innerRadius);
+
+        //labels carry the soldier total of however many buckets it takes to make room for them
+        int perLabel = (int) Math.ceil(LABEL_PIXELS / (pixels / (double) buckets));
+        FontMetrics fm = g.getFontMetrics();
+        g.setColor(Color.BLACK);
+        int textRadius = radius + 10;
+        for (int b = 0; b + perLabel <= buckets; b += perLabel) {
+            long from = (long) Math.floor(this.viewStart + b * nodesPerBucket);
+            long to = Math.max(from + 1, (long) Math.floor(this.viewStart + (b + perLabel) * nodesPerBucket));
+            summary.query(from, to, this.bucket);
+            String label = String.valueOf(this.bucket.soldiers);
+            double mid = Math.toRadians((b + perLabel / 2.0) * degPerBucket);
+            int textX = centerX + (int) (textRadius * Math.cos(mid)) - fm.stringWidth(label) / 2;
+            int textY = centerY - (int) (textRadius * Math.sin(mid)) + fm.getHeight() / 4;
+            g.drawString(label, textX, textY);
+        }
+        long first = Math.floorMod((long) Math.floor(this.viewStart), (long) this.n);
+        g.drawString("Showing nodes " + first + " to " + Math.floorMod(first + (long) Math.ceil(this.viewLen) - 1, (long) this.n)
+                + " (" + String.format("%.1f", nodesPerBucket) + " per pixel)", 40, 53);
+    }
+}
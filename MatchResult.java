@@ -0,0 +1,24 @@
+public class MatchResult {
+    //How and when a match ended. winner is the agent's folder name, or null for a draw.
+    public static final String ELIMINATION = "elimination"; //an agent has no soldiers left
+    public static final String REPETITION = "repetition";   //the same ring came round too many times
+    public static final String STALEMATE = "stalemate";     //no agent's nodes or soldiers changed for too long
+
+    public final int step;
+    public final String winner;
+    public final String reason;
+
+    public MatchResult(int step, String winner, String reason) {
+        this.step = step;
+        this.winner = winner;
+        this.reason = reason;
+    }
+
+    public boolean isDraw() {
+        return this.winner == null;
+    }
+
+    public String toString() {
+        return (this.winner == null ? "Draw" : this.winner + " wins") + " by " + this.reason + " at step " + this.step;
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class MatchStats {
+    //Per-agent statistics for every finished turn of a match. The World reports each node change as it
+    //happens and only that node and its two neighbours are looked at, so the ring is scanned once when
+    //the match starts and never again. Read by the GUI while the simulation thread is still adding turns.
+    public static final int NODES = 0;          //nodes owned at the end of the turn
+    public static final int SOLDIERS = 1;       //soldiers on those nodes
+    public static final int RUNS = 2;           //separate stretches of territory
+    public static final int FRONTIER = 3;       //owned nodes next to another agent's node
+    public static final int FIGHTS_WON = 4;     //the rest are counted during the turn only
+    public static final int FIGHTS_LOST = 5;
+    public static final int GROWTH = 6;         //new soldiers handed out for the turn
+    public static final int REJECTED_MOVES = 7; //moves thrown away as malformed or illegal
+    public static final String[] COLUMNS = {"nodes", "soldiers", "runs", "frontier", "fights_won", "fights_lost", "growth", "rejected_moves"};
+
+    private final String[] agents;
+    private final long[][] current; //[agent][column] for the turn in progress, simulation thread only
+    private final ArrayList<Integer> steps = new ArrayList<>();
+    private final ArrayList<long[][]> rows = new ArrayList<>();
+
+    //Scans the ring once and records it as the row for step. agents must be in the World's order, so that
+    //owner id a + 1 is slot a.
+    public MatchStats(Agent_Details[] agents, World w, int step) {
+        this.agents = new String[agents.length];
+        for (int a = 0; a < agents.length; a++) {
+            this.agents[a] = agents[a].locname;
+        }
+        this.current = new long[agents.length][COLUMNS.length];
+        int n = w.nodes.size();
+        for (int i = 0; i < n; i++) {
+            int owner = w.ownerIdAt(i);
+            if (owner > 0) {
+                this.current[owner - 1][NODES]++;
+                this.current[owner - 1][SOLDIERS] += w.soldiersAt(i);
+            }
+            this.count(w, i, -1, 0, 1);
+        }
+        this.endTurn(step);
+    }
+
+    public int agentCount() {
+        return this.agents.length;
+    }
+
+    public String agent(int slot) {
+        return this.agents[slot];
+    }
+
+    //Node i now holds its new values; oldOwner (an owner id) and oldSoldiers are what it held before.
+    public void nodeChanged(World w, int i, int oldOwner, int oldSoldiers) {
+        int owner = w.ownerIdAt(i);
+        if (oldOwner > 0) {
+            this.current[oldOwner - 1][SOLDIERS] -= oldSoldiers;
+        }
+        if (owner > 0) {
+            this.current[owner - 1][SOLDIERS] += w.soldiersAt(i);
+        }
+        if (oldOwner == owner) {
+            return;
+        }
+        if (oldOwner > 0) {
+            this.current[oldOwner - 1][NODES]--;
+        }
+        if (owner > 0) {
+            this.current[owner - 1][NODES]++;
+        }
+        //runs and frontier only depend on a node and its neighbours, take out what node i's old owner
+        //contributed around it and add back what the new owner does
+        int n = w.nodes.size();
+        for (int d = -1; d <= 1; d++) {
+            int j = Math.floorMod(i + d, n);
+            if (d > -1 && j == Math.floorMod(i - 1, n) || d > 0 && j == i) {
+                continue; //on a ring of one or two nodes the neighbours are the same node, count it once
+            }
+            this.count(w, j, i, oldOwner, -1);
+            this.count(w, j, i, owner, 1);
+        }
+    }
+
+    //Adds sign times node j's part of the run and frontier counts, reading node i as owned by ownerAtI.
+    private void count(World w, int j, int i, int ownerAtI, int sign) {
+        int n = w.nodes.size();
+        int owner = ownerAt(w, j, i, ownerAtI);
+        if (owner == 0) {
+            return;
+        }
+        int left = ownerAt(w, Math.floorMod(j - 1, n), i, ownerAtI);
+        int right = ownerAt(w, (j + 1) % n, i, ownerAtI);
+        if (left != owner) {
+            this.current[owner - 1][RUNS] += sign; //j starts a run
+        }
+        if (enemy(left, owner) || enemy(right, owner)) {
+            this.current[owner - 1][FRONTIER] += sign;
+        }
+    }
+
+    private static int ownerAt(World w, int j, int i, int ownerAtI) {
+        return j == i ? ownerAtI : w.ownerIdAt(j);
+    }
+
+    private static boolean enemy(int other, int owner) {
+        return other != 0 && other != owner;
+    }
+
+    private int slot(String agent) {
+        for (int a = 0; a < this.agents.length; a++) {
+            if (this.agents[a].equals(agent)) {
+                return a;
+            }
+        }
+        return -1;
+    }
+
+    //A fight between two owner ids.
+    public void fight(int winner, int loser) {
+        if (winner > 0) {
+            this.current[winner - 1][FIGHTS_WON]++;
+        }
+        if (loser > 0) {
+            this.current[loser - 1][FIGHTS_LOST]++;
+        }
+    }
+
+    public void growth(Agent_Details agent, int grow) {
+        int slot = this.slot(agent.locname);
+        if (slot >= 0) {
+            this.current[slot][GROWTH] += grow;
+        }
+    }
+
+    public void rejected(Agent_Details agent, int moves) {
+        int slot = this.slot(agent.locname);
+        if (slot >= 0) {
+            this.current[slot][REJECTED_MOVES] += moves;
+        }
+    }
+
+    //Records the counters as the row for step and starts counting the next turn.
+    public void endTurn(int step) {
+        long[][] row = new long[this.agents.length][];
+        for (int a = 0; a < this.agents.length; a++) {
+            row[a] = this.current[a].clone();
+            if (row[a][RUNS] == 0 && row[a][NODES] > 0) {
+                row[a][RUNS] = 1; //owns the whole ring, which has no run start
+            }
+            for (int c = FIGHTS_WON; c < COLUMNS.length; c++) {
+                this.current[a][c] = 0;
+            }
+        }
+        synchronized (this) {
+            this.steps.add(step);
+            this.rows.add(row);
+        }
+    }
+
+    public synchronized int size() {
+        return this.rows.size();
+    }
+
+    public synchronized int step(int row) {
+        return this.steps.get(row);
+    }
+
+    public synchronized long get(int row, int slot, int column) {
+        return this.rows.get(row)[slot][column];
+    }
+
+    //The recorded turns, for a checkpoint. Rows never change once added, so they are shared, not copied.
+    public synchronized int[] steps() {
+        int[] steps = new int[this.steps.size()];
+        for (int r = 0; r < steps.length; r++) {
+            steps[r] = this.steps.get(r);
+        }
+        return steps;
+    }
+
+    public synchronized long[][][] rows() {
+        return this.rows.toArray(new long[0][][]);
+    }
+
+    //Replaces the recorded turns with those of a resumed match. The counters for the turn in progress
+    //come from the constructor's scan of the ring, which is the same ring, so they are left alone.
+    public synchronized void load(int[] steps, long[][][] rows) {
+        this.steps.clear();
+        this.rows.clear();
+        for (int r = 0; r < rows.length; r++) {
+            this.steps.add(steps[r]);
+            this.rows.add(rows[r]);
+        }
+    }
+
+    //One line per agent per turn: step,agent,nodes,soldiers,...
+    public void writeCsv(String filename) throws IOException {
+        int size = this.size();
+        try (FileWriter writer = new FileWriter(filename)) {
+            writer.write("step,agent," + String.join(",", COLUMNS) + "\n");
+            StringBuilder line = new StringBuilder();
+            for (int r = 0; r < size; r++) {
+                for (int a = 0; a < this.agents.length; a++) {
+                    line.setLength(0);
+                    line.append(this.step(r)).append(',').append(this.agents[a]);
+                    for (int c = 0; c < COLUMNS.length; c++) {
+                        line.append(',').append(this.get(r, a, c));
+                    }
+                    writer.write(line.append('\n').toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MatchTrace {
+    //Records a match timeline in the Chrome trace-event format.
+    //Open the written file in chrome://tracing or ui.perfetto.dev.
+    //Every event is a complete ("X") event on one of the tracks below, times are in microseconds.
+    public static final int ENGINE_TRACK = 1;
+    public static final int GUI_TRACK = 2;
+    public static final int AGENT_TRACK_BASE = 10; //agent i is drawn on track AGENT_TRACK_BASE + i
+
+    private final long origin;
+    private final List<String> events;
+
+    public MatchTrace(Agent_Details[] agents) {
+        this.origin = System.nanoTime();
+        this.events = new ArrayList<>();
+        nameTrack(ENGINE_TRACK, "engine");
+        nameTrack(GUI_TRACK, "gui repaint");
+        for (int i = 0; i < agents.length; i++) {
+            nameTrack(AGENT_TRACK_BASE + i, "agent " + agents[i].locname);
+        }
+    }
+
+    public long now() {
+        return (System.nanoTime() - this.origin) / 1000;
+    }
+
+    public int agentTrack(Agent_Details[] agents, Agent_Details agent) {
+        for (int i = 0; i < agents.length; i++) {
+            if (agents[i] == agent) {
+                return AGENT_TRACK_BASE + i;
+            }
+        }
+        return ENGINE_TRACK;
+    }
+
+    //Records a span that started at startMicros (taken from now()) and ends now.
+    public void span(int track, String name, int step, long startMicros) {
+        long dur = now() - startMicros;
+        add("{\"name\":\"" + escape(name) + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + track
+                + ",\"ts\":" + startMicros + ",\"dur\":" + dur + ",\"args\":{\"step\":" + step + "}}");
+    }
+
+    private void nameTrack(int track, String name) {
+        add("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + track
+                + ",\"args\":{\"name\":\"" + escape(name) + "\"}}");
+    }
+
+    private synchronized void add(String event) {
+        //agents, the engine and the EDT may all record at once
+        this.events.add(event);
+    }
+
+    public synchronized int size() {
+        return this.events.size();
+    }
+
+    public synchronized void write(String filename) throws IOException {
+        try (FileWriter writer = new FileWriter(filename)) {
+            writer.write("{\"traceEvents\":[\n");
+            for (int i = 0; i < this.events.size(); i++) {
+                writer.write(this.events.get(i));
+                writer.write(i < this.events.size() - 1 ? ",\n" : "\n");
+            }
+            writer.write("],\"displayTimeUnit\":\"ms\"}\n");
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+public class MoveBuffer {
+    //Moves as parallel primitive arrays: the position in the mover's view, the change in soldiers (negative
+    //removes) and the mover's index in Simulation.agents. Simulation keeps one set of buffers for the whole
+    //match and clears them every turn; a snapshot keeps a frozen copy cut down to size.
+    public static final MoveBuffer NONE = new MoveBuffer(0).freeze();
+
+    private int[] locs;
+    private int[] changes;
+    private byte[] agents;
+    private int size;
+    private final boolean frozen;
+
+    public MoveBuffer(int capacity) {
+        this.locs = new int[capacity];
+        this.changes = new int[capacity];
+        this.agents = new byte[capacity];
+        this.frozen = false;
+    }
+
+    private MoveBuffer(MoveBuffer from) {
+        this.locs = Arrays.copyOf(from.locs, from.size);
+        this.changes = Arrays.copyOf(from.changes, from.size);
+        this.agents = Arrays.copyOf(from.agents, from.size);
+        this.size = from.size;
+        this.frozen = true;
+    }
+
+    public void add(int loc, int change, int agent) {
+        if (this.frozen) {
+            throw new IllegalStateException("Frozen moves can't be changed");
+        }
+        if (this.size == this.locs.length) {
+            int cap = Math.max(16, this.size * 2);
+            this.locs = Arrays.copyOf(this.locs, cap);
+            this.changes = Arrays.copyOf(this.changes, cap);
+            this.agents = Arrays.copyOf(this.agents, cap);
+        }
+        this.locs[this.size] = loc;
+        this.changes[this.size] = change;
+        this.agents[this.size] = (byte) agent;
+        this.size++;
+    }
+
+    public void addAll(MoveBuffer other) {
+        for (int i = 0; i < other.size; i++) {
+            this.add(other.locs[i], other.changes[i], other.agents[i]);
+        }
+    }
+
+    public void clear() {
+        if (this.frozen) {
+            throw new IllegalStateException("Frozen moves can't be changed");
+        }
+        this.size = 0;
+    }
+
+    //An unchangeable copy that only takes the space its moves need.
+    public MoveBuffer freeze() {
+        return this.frozen ? this : new MoveBuffer(this);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int loc(int i) {
+        return this.locs[i];
+    }
+
+    public int change(int i) {
+        return this.changes[i];
+    }
+
+    public int agent(int i) {
+        return this.agents[i];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < this.size; i++) {
+            sb.append(i > 0 ? ", " : "").append('(').append(this.agents[i]).append(", ").append(this.locs[i]).append(", ").append(this.changes[i]).append(')');
+        }
+        return sb.append(']').toString();
+    }
+}
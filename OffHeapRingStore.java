@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class OffHeapRingStore extends RingStore {
+    //The ring outside the Java heap, in slabs of SLAB nodes. Each slab is a buffer of little-endian int soldier
+    //counts and a buffer of byte owner ids. The heap only holds the slab tables, a couple of thousand buffers
+    //for a ring of 10^8 nodes. A slab is small enough for a fork to copy cheaply, and big enough that even the
+    //largest ring stays well within the kernel's limit on mappings per process.
+    //
+    //Either the slabs are direct buffers, and forks share them copy-on-write slab by slab like HeapRingStore,
+    //or they are mapped from a file another process can map read-only to watch the ring without a copy:
+    //  bytes 0-7   "RINGWARS"
+    //  bytes 8-15  number of nodes n, little-endian long
+    //  then n little-endian int soldier counts, then n byte owner ids
+    //A mapped store is the file, so it can't be forked. Direct buffers count against -XX:MaxDirectMemorySize,
+    //mapped files don't.
+    public static final int SLAB_SHIFT = 17;
+    public static final int SLAB = 1 << SLAB_SHIFT;
+    private static final int MASK = SLAB - 1;
+    public static final int HEADER = 16;
+
+    private final ByteBuffer[] soldiers;
+    private final ByteBuffer[] owners;
+    private final boolean[] mine; //slabs this store may write in place, all others are shared
+    private final Path file;      //null unless mapped
+
+    public OffHeapRingStore(int size) {
+        super(size);
+        int slabs = (size + MASK) >>> SLAB_SHIFT;
+        this.soldiers = new ByteBuffer[slabs];
+        this.owners = new ByteBuffer[slabs];
+        this.mine = new boolean[slabs];
+        this.file = null;
+        for (int c = 0; c < slabs; c++) {
+            int len = Math.min(SLAB, size - (c << SLAB_SHIFT));
+            this.soldiers[c] = ByteBuffer.allocateDirect(4 * len).order(ByteOrder.LITTLE_ENDIAN);
+            this.owners[c] = ByteBuffer.allocateDirect(len);
+            this.mine[c] = true;
+        }
+    }
+
+    private OffHeapRingStore(int size, Path file, FileChannel channel) throws IOException {
+        super(size);
+        int slabs = (size + MASK) >>> SLAB_SHIFT;
+        this.soldiers = new ByteBuffer[slabs];
+        this.owners = new ByteBuffer[slabs];
+        this.mine = new boolean[slabs];
+        this.file = file;
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RINGWARS".getBytes(StandardCharsets.US_ASCII)).putLong(size).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, HEADER - header.remaining());
+        }
+        long owners_at = HEADER + 4L * size;
+        for (int c = 0; c < slabs; c++) {
+            long first = (long) c << SLAB_SHIFT;
+            int len = Math.min(SLAB, size - (c << SLAB_SHIFT));
+            this.soldiers[c] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + 4 * first, 4L * len).order(ByteOrder.LITTLE_ENDIAN);
+            this.owners[c] = channel.map(FileChannel.MapMode.READ_WRITE, owners_at + first, len);
+            this.mine[c] = true;
+        }
+    }
+
+    private OffHeapRingStore(OffHeapRingStore from) {
+        super(from.size);
+        this.soldiers = from.soldiers.clone();
+        this.owners = from.owners.clone();
+        this.mine = new boolean[from.mine.length];
+        this.file = null;
+    }
+
+    //A store mapped to file, which is replaced by a new one of all empty nodes. Whoever still has the old file
+    //mapped keeps seeing the old ring.
+    public static OffHeapRingStore mapped(int size, Path file) {
+        try {
+            Files.deleteIfExists(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                //the mappings stay valid once the channel is closed
+                return new OffHeapRingStore(size, file, channel);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map the ring to " + file, e);
+        }
+    }
+
+    public Path file() {
+        return this.file;
+    }
+
+    //A store of its own with the same nodes, in direct buffers, for a mapped ring that can't be forked.
+    public OffHeapRingStore copyStore() {
+        OffHeapRingStore to = new OffHeapRingStore(this);
+        for (int c = 0; c < to.soldiers.length; c++) {
+            to.soldiers[c] = copy(this.soldiers[c]).order(ByteOrder.LITTLE_ENDIAN);
+            to.owners[c] = copy(this.owners[c]);
+            to.mine[c] = true;
+        }
+        return to;
+    }
+
+    public RingStore fork() {
+        if (this.file != null) {
+            throw new UnsupportedOperationException("A ring mapped to " + this.file + " can't be forked");
+        }
+        //from now on every slab is shared, the parent has to copy before writing as well
+        Arrays.fill(this.mine, false);
+        return new OffHeapRingStore(this);
+    }
+
+    public int soldiers(int i) {
+        return this.soldiers[i >>> SLAB_SHIFT].getInt((i & MASK) << 2);
+    }
+
+    public int owner(int i) {
+        return this.owners[i >>> SLAB_SHIFT].get(i & MASK);
+    }
+
+    public void set(int i, int soldiers, int owner) {
+        int c = i >>> SLAB_SHIFT;
+        if (!this.mine[c]) {
+            this.soldiers[c] = copy(this.soldiers[c]).order(ByteOrder.LITTLE_ENDIAN);
+            this.owners[c] = copy(this.owners[c]);
+            this.mine[c] = true;
+        }
+        this.soldiers[c].putInt((i & MASK) << 2, soldiers);
+        this.owners[c].put(i & MASK, (byte) owner);
+    }
+
+    private static ByteBuffer copy(ByteBuffer from) {
+        ByteBuffer to = ByteBuffer.allocateDirect(from.capacity());
+        to.put(0, from, 0, from.capacity());
+        return to;
+    }
+
+    public int ownedChunks() {
+        int owned = 0;
+        for (boolean m : this.mine) {
+            if (m) {
+                owned++;
+            }
+        }
+        return owned;
+    }
+
+    public void copySoldiers(int[] dst) {
+        for (int c = 0; c < this.soldiers.length; c++) {
+            this.soldiers[c].asIntBuffer().get(0, dst, c << SLAB_SHIFT, this.soldiers[c].capacity() >>> 2);
+        }
+    }
+
+    public void copySoldiers(int from, int[] dst, int len) {
+        for (int i = from; i < from + len; ) {
+            int c = i >>> SLAB_SHIFT;
+            int take = Math.min((this.soldiers[c].capacity() >>> 2) - (i & MASK), from + len - i);
+            this.soldiers[c].asIntBuffer().get(i & MASK, dst, i - from, take);
+            i += take;
+        }
+    }
+
+    public void copyOwners(int from, byte[] dst, int len) {
+        for (int i = from; i < from + len; ) {
+            int c = i >>> SLAB_SHIFT;
+            int take = Math.min(this.owners[c].capacity() - (i & MASK), from + len - i);
+            this.owners[c].get(i & MASK, dst, i - from, take);
+            i += take;
+        }
+    }
+
+    public void copyOwners(byte[] dst) {
+        for (int c = 0; c < this.owners.length; c++) {
+            this.owners[c].get(0, dst, c << SLAB_SHIFT, this.owners[c].capacity());
+        }
+    }
+}
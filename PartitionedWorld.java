@@ -0,0 +1,393 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class PartitionedWorld {
+    //A ring too big for one process, cut into contiguous arcs that each live in a RingWorker process on this
+    //machine. This side holds no nodes, only which worker has which arc; it talks to the workers over Unix
+    //domain sockets and relays the halo nodes between neighbours before every resolve and visibility check.
+    //
+    //resolve gives exactly the ring World.resolve would. Whether the sweep fights at a step, and how far it
+    //then skips, depends only on owners, so each worker first works out where the sweep would leave its arc
+    //for each of the three places it can come in (PLAN). The arcs are then chained in sweep order from rstart
+    //here, and every worker sweeps its arcs at the same time from the place it really comes in (COMMIT).
+    //
+    //Owners are numbered like World's store: 0 unowned, a + 1 for agent a.
+    public final int numNodes;
+    public final int max_soldiers;
+    public final int visability_range;
+    public final int agents;
+
+    private final int workers;
+    private final int[] lo; //worker w has [lo[w], lo[w + 1])
+    private final int halo;
+    private final Process[] processes;
+    private final SocketChannel[] channels;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private final Path socket;
+
+    //pending addSoldiers per worker, sent before the next request that reads the ring
+    private final int[][] adds;
+    private final int[] add_count;
+
+    public PartitionedWorld(int numNodes, int max_soldiers, int starting_soldiers, int visability_range, int agents, int workers) throws IOException {
+        this.numNodes = numNodes;
+        this.max_soldiers = max_soldiers;
+        this.visability_range = visability_range;
+        this.agents = agents;
+        this.halo = Math.max(2, visability_range);
+        //every arc has to be at least a halo long so each halo comes from one neighbour
+        this.workers = Math.max(1, Math.min(workers, numNodes / this.halo));
+        this.lo = new int[this.workers + 1];
+        for (int w = 0; w <= this.workers; w++) {
+            this.lo[w] = (int) ((long) numNodes * w / this.workers);
+        }
+
+        this.socket = Files.createTempDirectory("ringwars").resolve("coordinator.sock");
+        this.processes = new Process[this.workers];
+        this.channels = new SocketChannel[this.workers];
+        this.in = new DataInputStream[this.workers];
+        this.out = new DataOutputStream[this.workers];
+        this.adds = new int[this.workers][];
+        this.add_count = new int[this.workers];
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(this.socket));
+            for (int w = 0; w < this.workers; w++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "RingWorker", this.socket.toString());
+                builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                this.processes[w] = builder.start();
+            }
+            //workers are told their arc after connecting, so the order they connect in doesn't matter
+            for (int w = 0; w < this.workers; w++) {
+                this.channels[w] = server.accept();
+                this.in[w] = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channels[w]), 1 << 16));
+                this.out[w] = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channels[w]), 1 << 16));
+                this.adds[w] = new int[48];
+                this.out[w].writeByte(RingWorker.LOAD);
+                this.out[w].writeInt(numNodes);
+                this.out[w].writeInt(this.lo[w]);
+                this.out[w].writeInt(this.lo[w + 1]);
+                this.out[w].writeInt(this.halo);
+                this.out[w].writeInt(max_soldiers);
+            }
+        } finally {
+            Files.deleteIfExists(this.socket);
+            Files.deleteIfExists(this.socket.getParent());
+        }
+
+        //same starting places as the World constructor
+        double divisions = (double) numNodes / (double) agents;
+        int place = 0;
+        for (double i = 0; i < numNodes - 1; i = i + divisions) {
+            this.addSoldiers((int) i, place + 1, starting_soldiers);
+            place = place + 1;
+            if (place >= agents) {break;}
+        }
+    }
+
+    public int workers() {
+        return this.workers;
+    }
+
+    private int workerOf(int node) {
+        int w = Arrays.binarySearch(this.lo, node);
+        return w >= 0 ? Math.min(w, this.workers - 1) : -w - 2;
+    }
+
+    //World.Node.addSoldiers for owner. Queued and sent along with the next request that reads the ring.
+    public void addSoldiers(int node, int owner, int change) {
+        int w = this.workerOf(node);
+        if (this.add_count[w] * 3 == this.adds[w].length) {
+            this.adds[w] = Arrays.copyOf(this.adds[w], 2 * this.adds[w].length);
+        }
+        int k = 3 * this.add_count[w]++;
+        this.adds[w][k] = node;
+        this.adds[w][k + 1] = owner;
+        this.adds[w][k + 2] = change;
+    }
+
+    private void flushAdds() throws IOException {
+        for (int w = 0; w < this.workers; w++) {
+            if (this.add_count[w] == 0) {
+                continue;
+            }
+            this.out[w].writeByte(RingWorker.ADD);
+            this.out[w].writeInt(this.add_count[w]);
+            for (int k = 0; k < 3 * this.add_count[w]; k += 3) {
+                this.out[w].writeInt(this.adds[w][k]);
+                this.out[w].writeByte(this.adds[w][k + 1]);
+                this.out[w].writeInt(this.adds[w][k + 2]);
+            }
+            this.add_count[w] = 0;
+        }
+    }
+
+    //Copies every worker's edge nodes into its neighbours' halos.
+    private void exchangeHalos() throws IOException {
+        this.flushAdds();
+        for (int w = 0; w < this.workers; w++) {
+            this.out[w].writeByte(RingWorker.EDGES);
+            this.out[w].flush();
+        }
+        int h = this.halo;
+        int[][] first = new int[this.workers][h];
+        int[][] last = new int[this.workers][h];
+        byte[][] firstOwners = new byte[this.workers][h];
+        byte[][] lastOwners = new byte[this.workers][h];
+        for (int w = 0; w < this.workers; w++) {
+            this.readNodes(this.in[w], first[w], firstOwners[w]);
+            this.readNodes(this.in[w], last[w], lastOwners[w]);
+        }
+        for (int w = 0; w < this.workers; w++) {
+            int left = (w + this.workers - 1) % this.workers;
+            int right = (w + 1) % this.workers;
+            this.out[w].writeByte(RingWorker.HALO);
+            this.writeNodes(this.out[w], last[left], lastOwners[left]);
+            this.writeNodes(this.out[w], first[right], firstOwners[right]);
+        }
+    }
+
+    private void readNodes(DataInputStream in, int[] soldiers, byte[] owners) throws IOException {
+        for (int i = 0; i < soldiers.length; i++) {
+            soldiers[i] = in.readInt();
+        }
+        in.readFully(owners);
+    }
+
+    private void writeNodes(DataOutputStream out, int[] soldiers, byte[] owners) throws IOException {
+        for (int s : soldiers) {
+            out.writeInt(s);
+        }
+        out.write(owners);
+    }
+
+    public void resolve(int direction, int rstart) throws IOException {
+        this.exchangeHalos();
+        int n = this.numNodes;
+        //cut the sweep's n - 1 steps into segments that each stay on one worker's arc
+        ArrayList<int[]> segments = new ArrayList<>(); //worker, t_from, t_to, entry
+        int w = this.workerOf(rstart);
+        int g = rstart;
+        int t = 0;
+        while (t < n - 1) {
+            int length = direction == 1 ? this.lo[w + 1] - g : g - this.lo[w] + 1;
+            length = Math.min(length, n - 1 - t);
+            segments.add(new int[] {w, t, t + length, 0});
+            t += length;
+            w = direction == 1 ? (w + 1) % this.workers : (w + this.workers - 1) % this.workers;
+            g = direction == 1 ? this.lo[w] : this.lo[w + 1] - 1;
+        }
+
+        this.sendSegments(RingWorker.PLAN, direction, rstart, segments);
+        byte[][] exits = new byte[segments.size()][3];
+        for (int v = 0; v < this.workers; v++) {
+            for (int s = 0; s < segments.size(); s++) {
+                if (segments.get(s)[0] == v) {
+                    this.in[v].readFully(exits[s]);
+                }
+            }
+        }
+        int entry = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            segments.get(s)[3] = entry;
+            entry = exits[s][entry];
+        }
+
+        this.sendSegments(RingWorker.COMMIT, direction, rstart, segments);
+        //fights at the end of an arc write the first nodes of the next one
+        for (int v = 0; v < this.workers; v++) {
+            int k = this.in[v].readInt();
+            for (; k > 0; k--) {
+                int node = this.in[v].readInt();
+                int soldiers = this.in[v].readInt();
+                byte owner = this.in[v].readByte();
+                DataOutputStream to = this.out[this.workerOf(node)];
+                to.writeByte(RingWorker.PUT);
+                to.writeInt(1);
+                to.writeInt(node);
+                to.writeInt(soldiers);
+                to.writeByte(owner);
+            }
+        }
+    }
+
+    private void sendSegments(byte op, int direction, int rstart, ArrayList<int[]> segments) throws IOException {
+        for (int v = 0; v < this.workers; v++) {
+            int count = 0;
+            for (int[] seg : segments) {
+                count += seg[0] == v ? 1 : 0;
+            }
+            this.out[v].writeByte(op);
+            this.out[v].writeInt(direction);
+            this.out[v].writeInt(rstart);
+            this.out[v].writeInt(count);
+            for (int[] seg : segments) {
+                if (seg[0] == v) {
+                    this.out[v].writeInt(seg[1]);
+                    this.out[v].writeInt(seg[2]);
+                    if (op == RingWorker.COMMIT) {
+                        this.out[v].writeInt(seg[3]);
+                    }
+                }
+            }
+            this.out[v].flush();
+        }
+    }
+
+    //Soldiers and nodes held by each agent, agent a at index a.
+    public void totals(long[] soldiers, int[] nodes) throws IOException {
+        this.flushAdds();
+        for (int w = 0; w < this.workers; w++) {
+            this.out[w].writeByte(RingWorker.TOTALS);
+            this.out[w].writeInt(this.agents);
+            this.out[w].flush();
+        }
+        Arrays.fill(soldiers, 0);
+        Arrays.fill(nodes, 0);
+        for (int w = 0; w < this.workers; w++) {
+            for (int a = 0; a < this.agents; a++) {
+                soldiers[a] += this.in[w].readLong();
+                nodes[a] += this.in[w].readInt();
+            }
+        }
+    }
+
+    //World.Node.visible_in_range(owner, visability_range) for every node, 1 or 0.
+    public void visible(int owner, byte[] dst) throws IOException {
+        if (2 * this.visability_range + 1 >= this.numNodes) {
+            //the range covers the whole ring
+            long[] soldiers = new long[this.agents];
+            int[] nodes = new int[this.agents];
+            this.totals(soldiers, nodes);
+            Arrays.fill(dst, (byte) (nodes[owner - 1] > 0 ? 1 : 0));
+            return;
+        }
+        this.exchangeHalos();
+        for (int w = 0; w < this.workers; w++) {
+            this.out[w].writeByte(RingWorker.VISIBLE);
+            this.out[w].writeByte(owner);
+            this.out[w].writeInt(this.visability_range);
+            this.out[w].flush();
+        }
+        for (int w = 0; w < this.workers; w++) {
+            this.in[w].readFully(dst, this.lo[w], this.lo[w + 1] - this.lo[w]);
+        }
+    }
+
+    //The whole ring, like World.copySoldiers and World.copyOwnerIds. Only for rings that fit here.
+    public void gather(int[] soldiers, byte[] owners) throws IOException {
+        this.flushAdds();
+        for (int w = 0; w < this.workers; w++) {
+            this.out[w].writeByte(RingWorker.GATHER);
+            this.out[w].flush();
+        }
+        for (int w = 0; w < this.workers; w++) {
+            for (int i = this.lo[w]; i < this.lo[w + 1]; i++) {
+                soldiers[i] = this.in[w].readInt();
+            }
+            this.in[w].readFully(owners, this.lo[w], this.lo[w + 1] - this.lo[w]);
+        }
+    }
+
+    public void close() {
+        //channels are in the order workers connected, not the order they were started
+        for (int w = 0; w < this.workers; w++) {
+            try {
+                this.out[w].writeByte(RingWorker.QUIT);
+                this.out[w].flush();
+                this.channels[w].close();
+            } catch (IOException e) {
+                EventLog.error(EventLog.ENGINE, "Ring worker " + w + " did not shut down cleanly: " + e.getMessage());
+            }
+        }
+        for (Process process : this.processes) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //java PartitionedWorld <ring size> <workers> <turns>
+    //Plays random placements on a World and a PartitionedWorld side by side and checks they stay the same.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: java PartitionedWorld <ring size> <workers> <turns>");
+            return;
+        }
+        int n = Integer.parseInt(args[0]);
+        int turns = Integer.parseInt(args[2]);
+        Agent_Details red = new Agent_Details("", "red", "", Color.RED);
+        Agent_Details blue = new Agent_Details("", "blue", "", Color.BLUE);
+        Agent_Details[] agents = {red, blue};
+        HashMap<String, Agent_Details> lookup = new HashMap<>();
+        lookup.put("red", red);
+        lookup.put("blue", blue);
+        World world = new World(n, 500, 75, 5, agents, lookup);
+        PartitionedWorld split = new PartitionedWorld(n, 500, 75, 5, agents.length, Integer.parseInt(args[1]));
+        Random rand = new Random(1);
+        int[] expected = new int[n];
+        byte[] expectedOwners = new byte[n];
+        int[] actual = new int[n];
+        byte[] actualOwners = new byte[n];
+        byte[] visible = new byte[n];
+        long single = 0;
+        long parted = 0;
+        int mismatched = 0;
+        for (int turn = 1; turn <= turns; turn++) {
+            for (int k = 0; k < n / 50 + 2; k++) {
+                int node = rand.nextInt(n);
+                int a = rand.nextInt(agents.length);
+                int change = 1 + rand.nextInt(60);
+                world.getNode(node).addSoldiers(agents[a], change);
+                split.addSoldiers(node, a + 1, change);
+            }
+            int direction = turn % 2;
+            int start = rand.nextInt(n);
+            long t0 = System.nanoTime();
+            world.resolve(direction, start);
+            long t1 = System.nanoTime();
+            split.resolve(direction, start);
+            split.gather(actual, actualOwners);
+            long t2 = System.nanoTime();
+            single += t1 - t0;
+            parted += t2 - t1;
+            world.copySoldiers(expected);
+            world.copyOwnerIds(expectedOwners);
+            boolean same = Arrays.equals(expected, actual) && Arrays.equals(expectedOwners, actualOwners);
+            split.visible(1, visible);
+            for (int i = 0; i < n && same; i++) {
+                same = visible[i] == world.getNode(i).visible_in_range("red", 5);
+            }
+            if (!same && mismatched++ == 0) {
+                System.out.println("First difference after turn " + turn);
+            }
+        }
+        split.close();
+        System.out.println(turns + " turns on " + split.workers() + " workers, " + mismatched + " differed from World. resolve "
+                + single / 1000000 + " ms in one process, " + parted / 1000000 + " ms split (with gather)");
+    }
+}
@@ -0,0 +1,215 @@
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class ReplayLog {
+    //Everything needed to play a match again without its agents: the settings, the random seed, the moves
+    //each agent handed in every turn (before the legality check) and the World hash after every turn.
+    //Plain text, one record per line:
+    //  ringwars-replay 1
+    //  settings <ring size> <max soldiers> <starting soldiers> <visibility> <growth> <bonus growth>
+    //  seed <seed>
+    //  agent <folder> <file> <lang>
+    //  move <step> <agent index> <loc> <change>
+    //  turn <step> <hash>            (turn 0 is the starting ring)
+    //  end <step> <winner or -> <reason>
+    //Recording appends as the match goes; a replay is read whole and then handed to Simulation.replay_in.
+    private static final String HEADER = "ringwars-replay 1";
+
+    private BufferedWriter out;
+
+    public int scale;
+    public int max_soldiers;
+    public int starting_soldiers;
+    public int visibility_range;
+    public double fixedGrowthperTurn;
+    public double ownershipBonusGrowth;
+    public long seed;
+    public ArrayList<String[]> agents = new ArrayList<>(); //folder, file, lang
+    private final HashMap<Long, ArrayList<int[]>> moves = new HashMap<>(); //(step, agent) -> loc, change pairs
+    private final HashMap<Integer, Long> hashes = new HashMap<>();
+    public int lastStep = -1;
+    public MatchResult result; //how the recorded match ended, null if the log stops before that
+
+    private ReplayLog() {
+    }
+
+    //Starts recording sim to filename. Call before the first make_turn.
+    public static ReplayLog record(String filename, Simulation sim) throws IOException {
+        ReplayLog log = new ReplayLog();
+        log.out = new BufferedWriter(new FileWriter(filename));
+        log.out.write(HEADER + "\n");
+        log.out.write("settings " + sim.world.numNodes + " " + sim.max_soldiers + " " + sim.starting_soldiers + " " + sim.visibility_range
+                + " " + sim.fixedGrowthperTurn + " " + sim.ownershipBonusGrowth + "\n");
+        log.out.write("seed " + sim.seed + "\n");
+        for (Agent_Details agent : sim.agents) {
+            log.out.write("agent " + agent.locname + " " + agent.filename + " " + agent.lang.replace(' ', '+') + "\n");
+        }
+        log.turn(0, sim.world.hash);
+        return log;
+    }
+
+    public void moves(int step, int agent, MoveBuffer moves) {
+        if (this.out == null) {
+            return;
+        }
+        try {
+            for (int m = 0; m < moves.size(); m++) {
+                this.out.write("move " + step + " " + agent + " " + moves.loc(m) + " " + moves.change(m) + "\n");
+            }
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    public void turn(int step, long hash) {
+        if (this.out == null) {
+            return;
+        }
+        try {
+            this.out.write("turn " + step + " " + Long.toHexString(hash) + "\n");
+            this.out.flush(); //a crashed match keeps every finished turn
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    public void result(MatchResult result) {
+        if (this.out == null) {
+            return;
+        }
+        try {
+            this.out.write("end " + result.step + " " + (result.winner == null ? "-" : result.winner) + " " + result.reason + "\n");
+            this.out.flush();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    public void close() {
+        if (this.out == null) {
+            return;
+        }
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        EventLog.error(EventLog.ENGINE, "Replay log stopped: " + e.getMessage());
+        this.out = null;
+    }
+
+    public static ReplayLog read(String filename) throws IOException {
+        ReplayLog log = new ReplayLog();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("Not a replay log: " + filename);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                switch (parts[0]) {
+                    case "settings":
+                        log.scale = Integer.parseInt(parts[1]);
+                        log.max_soldiers = Integer.parseInt(parts[2]);
+                        log.starting_soldiers = Integer.parseInt(parts[3]);
+                        log.visibility_range = Integer.parseInt(parts[4]);
+                        log.fixedGrowthperTurn = Double.parseDouble(parts[5]);
+                        log.ownershipBonusGrowth = Double.parseDouble(parts[6]);
+                        break;
+                    case "seed":
+                        log.seed = Long.parseLong(parts[1]);
+                        break;
+                    case "agent":
+                        log.agents.add(new String[] {parts[1], parts[2], parts[3].replace('+', ' ')});
+                        break;
+                    case "move":
+                        long key = key(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                        log.moves.computeIfAbsent(key, k -> new ArrayList<>()).add(new int[] {Integer.parseInt(parts[3]), Integer.parseInt(parts[4])});
+                        break;
+                    case "turn":
+                        int step = Integer.parseInt(parts[1]);
+                        log.hashes.put(step, Long.parseUnsignedLong(parts[2], 16));
+                        log.lastStep = Math.max(log.lastStep, step);
+                        break;
+                    case "end":
+                        log.result = new MatchResult(Integer.parseInt(parts[1]), parts[2].equals("-") ? null : parts[2], parts[3]);
+                        break;
+                    default:
+                        throw new IOException("Unknown replay record: " + line);
+                }
+            }
+        }
+        return log;
+    }
+
+    private static long key(int step, int agent) {
+        return ((long) step << 32) | agent;
+    }
+
+    //Fills into with the moves agents[agent] handed in on step, as they were read from its move.txt.
+    public void movesFor(int step, int agent, MoveBuffer into) {
+        into.clear();
+        ArrayList<int[]> recorded = this.moves.get(key(step, agent));
+        if (recorded != null) {
+            for (int[] m : recorded) {
+                into.add(m[0], m[1], agent);
+            }
+        }
+    }
+
+    //The recorded hash after step, or null if the log stops before it.
+    public Long hashAt(int step) {
+        return this.hashes.get(step);
+    }
+
+    //Plays the recorded match again and returns the first step whose hash differs from the log, or -1.
+    public int verify() {
+        Agent_Details[] replayAgents = new Agent_Details[this.agents.size()];
+        HashMap<String, Agent_Details> lookup = new HashMap<>();
+        for (int a = 0; a < replayAgents.length; a++) {
+            String[] ag = this.agents.get(a);
+            replayAgents[a] = new Agent_Details(ag[1], ag[0], ag[2], Color.GRAY);
+            lookup.put(ag[0], replayAgents[a]);
+        }
+        Simulation sim = new Simulation(this.scale, replayAgents, this.max_soldiers, this.starting_soldiers, this.visibility_range,
+                this.fixedGrowthperTurn, this.ownershipBonusGrowth, lookup, this.seed);
+        sim.snapshot_policy = Simulation.SNAPSHOT_OFF;
+        sim.replay_in = this;
+        if (this.hashAt(0) != null && this.hashAt(0) != sim.world.hash) {
+            return 0;
+        }
+        for (int step = 1; step <= this.lastStep; step++) {
+            sim.make_turn();
+            Long expected = this.hashAt(step);
+            if (expected != null && expected != sim.world.hash) {
+                return step;
+            }
+        }
+        return -1;
+    }
+
+    //java ReplayLog <replay file>
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java ReplayLog <replay file>");
+            return;
+        }
+        ReplayLog log = read(args[0]);
+        int diverged = log.verify();
+        if (diverged < 0) {
+            System.out.println("All " + log.lastStep + " turns match the recorded hashes.");
+        } else {
+            System.out.println("Hash differs from the recording at step " + diverged + ".");
+            System.exit(1);
+        }
+    }
+}
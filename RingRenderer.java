@@ -0,0 +1,217 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+
+public class RingRenderer {
+    //Draws the ring (arcs, count labels, node numbers and small-ring faces) into a cached image.
+    //Arc angles and label anchors are worked out once per ring size and panel size.
+    //When the next displayed step only changes a few nodes, only those arcs and the labels around them are redrawn.
+
+    public interface FaceSource {
+        Image getFace(int count, Color c);
+    }
+
+    private static final int FULL_REDRAW_DIVISOR = 8; //redraw everything once more than 1/8 of the nodes changed
+
+    //geometry, rebuilt when the ring size or the panel size changes
+    private int n;
+    private int width;
+    private int height;
+    public int centerX;
+    public int centerY;
+    public int radius;
+    public int innerRadius;
+    public int arcAngle; //thousandths of a degree per node
+    private int[] startDeg;
+    private int extentDeg;
+    private int[] labelX; //label anchors before centering on the string width
+    private int[] labelY;
+    private int[] indexX;
+    private int[] indexY;
+    private int[] faceX;
+    private int[] faceY;
+    private int window; //how many neighbours a label can reach into
+
+    //what is currently in the image
+    private BufferedImage image;
+    private int[] drawnCounts;
+    private Color[] drawnOwners;
+    private boolean drawnDebug;
+    private boolean drawnFaces;
+    private Font drawnFont;
+
+    private boolean[] dirtyArc;
+    private boolean[] dirtyLabel;
+
+    public BufferedImage render(Simulation.World_State ws, int w, int h, Color background, Font font, boolean debug, boolean faces, FaceSource faceSource, ImageObserver observer) {
+        int size = ws.size();
+        if (size != this.n || w != this.width || h != this.height) {
+            this.layout(size, w, h);
+            this.image = null;
+        }
+        if (this.image == null || debug != this.drawnDebug || faces != this.drawnFaces || !font.equals(this.drawnFont)) {
+            this.image = new BufferedImage(Math.max(w, 1), Math.max(h, 1), BufferedImage.TYPE_INT_RGB);
+            this.drawAll(ws, background, font, debug, faces, faceSource, observer);
+            return this.image;
+        }
+        if (faces) {
+            //small rings only, and face images may still be loading, so always draw them fresh
+            this.drawAll(ws, background, font, debug, faces, faceSource, observer);
+            return this.image;
+        }
+        int changed = 0;
+        for (int i = 0; i < this.n; i++) {
+            if (ws.count(i) != this.drawnCounts[i] || ws.color(i) != this.drawnOwners[i]) {
+                changed++;
+            }
+        }
+        if (changed == 0) {
+            return this.image;
+        }
+        if (changed > this.n / FULL_REDRAW_DIVISOR) {
+            this.drawAll(ws, background, font, debug, faces, faceSource, observer);
+        } else {
+            this.drawChanged(ws, background, font, debug);
+        }
+        return this.image;
+    }
+
+    private void layout(int size, int w, int h) {
+        this.n = size;
+        this.width = w;
+        this.height = h;
+        this.centerX = w / 2;
+        this.centerY = h / 2;
+        this.radius = Math.min(w, h) / 2 - 20; // Radius of the outer circle
+        this.innerRadius = (int) (this.radius * 0.8); // 80% of the outer circle's radius
+        this.arcAngle = 360000 / size; // Each segment has equal size
+        this.extentDeg = (1000 + this.arcAngle) / 1000;
+        this.startDeg = new int[size];
+        this.labelX = new int[size];
+        this.labelY = new int[size];
+        this.indexX = new int[size];
+        this.indexY = new int[size];
+        this.faceX = new int[size];
+        this.faceY = new int[size];
+        int textRadius = this.radius + 10; // Position text slightly outside the arc
+        int startAngle = 0;
+        for (int i = 0; i < size; i++) {
+            this.startDeg[i] = startAngle / 1000;
+            int midAngle = startAngle + this.arcAngle / 2;
+            double angleRad = Math.toRadians(midAngle / 1000);
+            double cos = Math.cos(angleRad);
+            double sin = Math.sin(angleRad);
+            this.labelX[i] = this.centerX + (int) (textRadius * cos);
+            this.labelY[i] = this.centerY - (int) (textRadius * sin);
+            this.indexX[i] = this.centerX + (int) ((textRadius - 25) * cos);
+            this.indexY[i] = this.centerY - (int) ((textRadius - 25) * sin);
+            this.faceX[i] = this.centerX + (int) (this.radius * 0.9 * cos);
+            this.faceY[i] = this.centerY - (int) (this.radius * 0.9 * sin);
+            startAngle += this.arcAngle;
+        }
+        //a label is at most ~6 digits wide, find how many arcs that spans along the circumference
+        double arcPixels = Math.max(2 * Math.PI * Math.max(this.radius, 1) / size, 0.01);
+        this.window = (int) Math.min(size, Math.ceil(60 / arcPixels) + 1);
+        this.drawnCounts = new int[size];
+        this.drawnOwners = new Color[size];
+        this.dirtyArc = new boolean[size];
+        this.dirtyLabel = new boolean[size];
+    }
+
+    private void drawAll(Simulation.World_State ws, Color background, Font font, boolean debug, boolean faces, FaceSource faceSource, ImageObserver observer) {
+        Graphics2D g = this.image.createGraphics();
+        g.setFont(font);
+        g.setColor(background);
+        g.fillRect(0, 0, this.width, this.height);
+        FontMetrics fm = g.getFontMetrics();
+        for (int i = 0; i < this.n; i++) {
+            int count = ws.count(i);
+            Color c = ws.color(i);
+            this.drawArc(g, i, c);
+            this.drawLabels(g, fm, i, count, debug);
+            if (faces && (count > 0) && (c != Color.GRAY)) {
+                Image myFace = faceSource.getFace(count, c);
+                if (myFace != null) { //null while the sprites are still loading
+                    g.drawImage(myFace, this.faceX[i] - myFace.getWidth(observer) / 2, this.faceY[i] - myFace.getHeight(observer) / 2, observer);
+                }
+            }
+            this.drawnCounts[i] = count;
+            this.drawnOwners[i] = c;
+        }
+        this.drawInner(g);
+        g.dispose();
+        this.drawnDebug = debug;
+        this.drawnFaces = faces;
+        this.drawnFont = font;
+    }
+
+    private void drawChanged(Simulation.World_State ws, Color background, Font font, boolean debug) {
+        Graphics2D g = this.image.createGraphics();
+        g.setFont(font);
+        FontMetrics fm = g.getFontMetrics();
+        //clear the old labels of every changed node and mark everything they could have overlapped
+        g.setColor(background);
+        for (int i = 0; i < this.n; i++) {
+            if (ws.count(i) == this.drawnCounts[i] && ws.color(i) == this.drawnOwners[i]) {
+                continue;
+            }
+            this.clearLabel(g, fm, i, this.drawnCounts[i]);
+            for (int d = -this.window; d <= this.window; d++) {
+                int j = Math.floorMod(i + d, this.n);
+                this.dirtyArc[j] = true;
+                this.dirtyLabel[j] = true;
+            }
+        }
+        //arcs are wider than one node and overlap the next ones, so keep going until the overlap ends.
+        //arcs and labels are interleaved in ring order, the same as a full redraw
+        int coveredTo = -1;
+        for (int i = 0; i < this.n; i++) {
+            if (this.dirtyArc[i] || this.startDeg[i] < coveredTo) {
+                Color c = ws.color(i);
+                this.drawArc(g, i, c);
+                this.drawnOwners[i] = c;
+                coveredTo = Math.max(coveredTo, this.startDeg[i] + this.extentDeg);
+                this.dirtyArc[i] = false;
+                this.dirtyLabel[i] = true;
+            }
+            if (this.dirtyLabel[i]) {
+                int count = ws.count(i);
+                this.drawLabels(g, fm, i, count, debug);
+                this.drawnCounts[i] = count;
+                this.dirtyLabel[i] = false;
+            }
+        }
+        this.drawInner(g);
+        g.dispose();
+    }
+
+    private void drawArc(Graphics2D g, int i, Color c) {
+        // Fill the arc with the specified color
+        g.setColor(c);
+        g.fillArc(this.centerX - this.radius, this.centerY - this.radius, 2 * this.radius, 2 * this.radius, this.startDeg[i], this.extentDeg);
+    }
+
+    private void drawInner(Graphics2D g) {
+        // Draw the white inner circle last, smaller than the outer circle
+        g.setColor(Color.WHITE);
+        g.fillOval(this.centerX - this.innerRadius, this.centerY - this.innerRadius, 2 * this.innerRadius, 2 * this.innerRadius);
+    }
+
+    private void drawLabels(Graphics2D g, FontMetrics fm, int i, int count, boolean debug) {
+        // Draw the count value near the arc
+        String countS = String.valueOf(count);
+        g.setColor(Color.BLACK);
+        g.drawString(countS, this.labelX[i] - fm.stringWidth(countS) / 2, this.labelY[i] + fm.getHeight() / 4);
+        if (debug) {
+            String indexS = String.valueOf(i);
+            g.drawString(indexS, this.indexX[i] - fm.stringWidth(indexS) / 2, this.indexY[i] + fm.getHeight() / 4);
+        }
+    }
+
+    private void clearLabel(Graphics2D g, FontMetrics fm, int i, int oldCount) {
+        String countS = String.valueOf(oldCount);
+        int x = this.labelX[i] - fm.stringWidth(countS) / 2;
+        int y = this.labelY[i] + fm.getHeight() / 4;
+        g.fillRect(x, y - fm.getAscent(), fm.stringWidth(countS), fm.getAscent() + fm.getDescent());
+    }
+}
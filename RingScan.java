@@ -0,0 +1,112 @@
+public class RingScan {
+    //The linear passes over ring arrays that every turn makes however quiet the board is: finding borders
+    //between two agents for resolve, finding where one owner's run ends, and adding up soldiers. These are
+    //the plain loops; simd/VectorRingScan does the same with jdk.incubator.vector and is used instead when it
+    //has been compiled and the JVM was started with --add-modules jdk.incubator.vector. -Dringwars.scalar=true
+    //keeps the plain loops regardless.
+    public static final RingScan SCAN = pick();
+
+    private static RingScan pick() {
+        if (Boolean.getBoolean("ringwars.scalar")) {
+            return new RingScan();
+        }
+        try {
+            RingScan vector = (RingScan) Class.forName("VectorRingScan").getDeclaredConstructor().newInstance();
+            if (vector.agrees()) {
+                return vector;
+            }
+            EventLog.error(EventLog.ENGINE, "VectorRingScan disagrees with the plain loops, not using it");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //not compiled, or the incubator module isn't there
+        }
+        return new RingScan();
+    }
+
+    public String name() {
+        return "scalar";
+    }
+
+    public static boolean contested(byte a, byte b) {
+        return a != b && a != 0 && b != 0;
+    }
+
+    //First j in [from, to) where owners j and j + 1 are two different agents, or to if there is none.
+    //owners[to] must exist.
+    public int nextContested(byte[] o, int from, int to) {
+        for (int j = from; j < to; j++) {
+            if (contested(o[j], o[j + 1])) {
+                return j;
+            }
+        }
+        return to;
+    }
+
+    //Going down from from to just above low, the first j where owners j and j + 1 are two different agents,
+    //or low if there is none.
+    public int prevContested(byte[] o, int from, int low) {
+        for (int j = from; j > low; j--) {
+            if (contested(o[j], o[j + 1])) {
+                return j;
+            }
+        }
+        return low;
+    }
+
+    //First j in [from, to) where owners j and j + 1 differ, or to if there is none. owners[to] must exist.
+    public int nextChange(byte[] o, int from, int to) {
+        for (int j = from; j < to; j++) {
+            if (o[j] != o[j + 1]) {
+                return j;
+            }
+        }
+        return to;
+    }
+
+    public long sum(int[] s, int from, int to) {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += s[i];
+        }
+        return total;
+    }
+
+    //Adds each node in [from, to) to the soldiers and node count of its owner. Owners must be below sums.length.
+    public void totals(int[] s, byte[] o, int from, int to, int[] sums, int[] counts) {
+        for (int i = from; i < to; i++) {
+            sums[o[i]] += s[i];
+            counts[o[i]]++;
+        }
+    }
+
+    //Checks a subclass against these loops on a few random rings before it is trusted.
+    private boolean agrees() {
+        RingScan plain = new RingScan();
+        java.util.Random r = new java.util.Random(1);
+        for (int t = 0; t < 200; t++) {
+            int n = 2 + r.nextInt(300);
+            byte[] o = new byte[n];
+            int[] s = new int[n];
+            int owners = 1 + r.nextInt(4);
+            for (int i = 0; i < n; i++) {
+                o[i] = (byte) (r.nextInt(8) == 0 ? r.nextInt(owners) : i > 0 ? o[i - 1] : 0);
+                s[i] = r.nextInt(1000);
+            }
+            int a = r.nextInt(n);
+            int b = a + r.nextInt(n - a);
+            int[] sums = new int[owners];
+            int[] counts = new int[owners];
+            int[] plainSums = new int[owners];
+            int[] plainCounts = new int[owners];
+            this.totals(s, o, a, b, sums, counts);
+            plain.totals(s, o, a, b, plainSums, plainCounts);
+            if (this.nextContested(o, a, n - 1) != plain.nextContested(o, a, n - 1)
+                    || this.prevContested(o, Math.min(b, n - 2), a - 1) != plain.prevContested(o, Math.min(b, n - 2), a - 1)
+                    || this.nextChange(o, a, n - 1) != plain.nextChange(o, a, n - 1)
+                    || this.sum(s, a, b) != plain.sum(s, a, b)
+                    || !java.util.Arrays.equals(sums, plainSums) || !java.util.Arrays.equals(counts, plainCounts)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+import java.nio.file.Path;
+
+public abstract class RingStore {
+    //Soldier counts and owner ids of every node in a ring, by node index. Owner 0 is unowned, see World for the
+    //rest. A new store has every node empty and unowned.
+    //
+    //HeapRingStore keeps the ring in int and byte arrays. OffHeapRingStore keeps it outside the Java heap, in
+    //direct buffers or mapped from a file, so a ring of hundreds of millions of nodes costs the heap and the
+    //garbage collector next to nothing.
+    public final int size;
+
+    protected RingStore(int size) {
+        this.size = size;
+    }
+
+    //The store a World of size nodes starts with. -Dringwars.ring_file=<file> maps the ring to that file, and
+    //a ring of at least -Dringwars.offheap_nodes nodes (2^26 by default) goes off the heap anyway.
+    public static RingStore forSize(int size) {
+        String file = System.getProperty("ringwars.ring_file");
+        if (file != null) {
+            return OffHeapRingStore.mapped(size, Path.of(file));
+        }
+        return unmapped(size);
+    }
+
+    //forSize without the ring file, for a ring that isn't the one being played, e.g. one read from a Checkpoint.
+    public static RingStore unmapped(int size) {
+        if (size >= Integer.getInteger("ringwars.offheap_nodes", 1 << 26)) {
+            return new OffHeapRingStore(size);
+        }
+        return new HeapRingStore(size);
+    }
+
+    //A copy of this store that shares its storage copy-on-write.
+    public abstract RingStore fork();
+
+    public abstract int soldiers(int i);
+
+    public abstract int owner(int i);
+
+    public abstract void set(int i, int soldiers, int owner);
+
+    //Number of chunks this store has its own copy of, for checking what a fork has cost.
+    public abstract int ownedChunks();
+
+    //World.resolve's search for the next border between two agents. Positions count up from i past the end of
+    //the ring, so i stands for the pair of nodes i and i + 1 (mod size). Returns the first such i below end,
+    //or end if there is none.
+    public int nextContested(int i, int end) {
+        int n = this.size;
+        while (i < end) {
+            int g = i % n;
+            if (g == n - 1) {
+                if (RingScan.contested((byte) this.owner(n - 1), (byte) this.owner(0))) {
+                    return i;
+                }
+                i++;
+                continue;
+            }
+            int stop = (int) Math.min(n - 1, (long) g + (end - i));
+            int j = this.nextContestedIn(g, stop);
+            if (j < stop) {
+                return i + (j - g);
+            }
+            i += stop - g;
+        }
+        return end;
+    }
+
+    //The same for resolve's sweep to the left: positions count down from i past the start of the ring, and i
+    //stands for nodes i - 1 and i (mod size). Returns the first such i above end, or end.
+    public int prevContested(int i, int end) {
+        int n = this.size;
+        while (i > end) {
+            int g = Math.floorMod(i, n);
+            if (g == 0) {
+                if (RingScan.contested((byte) this.owner(n - 1), (byte) this.owner(0))) {
+                    return i;
+                }
+                i--;
+                continue;
+            }
+            int low = (int) Math.max(-1, (long) g - 1 - (i - end));
+            int j = this.prevContestedIn(g - 1, low);
+            if (j > low) {
+                return i - (g - 1 - j);
+            }
+            i -= g - 1 - low;
+        }
+        return end;
+    }
+
+    //RingScan.nextContested over nodes [from, to), to at most size - 1.
+    protected int nextContestedIn(int from, int to) {
+        for (int j = from; j < to; j++) {
+            if (RingScan.contested((byte) this.owner(j), (byte) this.owner(j + 1))) {
+                return j;
+            }
+        }
+        return to;
+    }
+
+    //RingScan.prevContested from node from down to just above low.
+    protected int prevContestedIn(int from, int low) {
+        for (int j = from; j > low; j--) {
+            if (RingScan.contested((byte) this.owner(j), (byte) this.owner(j + 1))) {
+                return j;
+            }
+        }
+        return low;
+    }
+
+    public abstract void copySoldiers(int[] dst);
+
+    public abstract void copyOwners(byte[] dst);
+
+    //Nodes [from, from + len) into dst from index 0, for going through a big ring a piece at a time.
+    public abstract void copySoldiers(int from, int[] dst, int len);
+
+    public abstract void copyOwners(int from, byte[] dst, int len);
+}
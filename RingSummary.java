@@ -0,0 +1,129 @@
+import java.awt.*;
+
+public class RingSummary {
+    //Multi-resolution summary of one snapshot's ring, used to draw rings with far more nodes than pixels.
+    //Level k splits the ring into buckets of BASE << k nodes and keeps, per bucket, how many nodes each owner
+    //holds and the total soldiers. Any range of the ring can then be summed from a handful of buckets.
+    public static final int BASE_SHIFT = 4;
+    public static final int BASE = 1 << BASE_SHIFT;
+    public static final int MIN_NODES = 4096; //smaller rings are drawn node by node and don't need a summary
+
+    public final int n;
+    public final Color[] palette; //owner id -> color, as in World_State
+    private final int[] counts;
+    private final byte[] owners;
+    private final int[][][] ownerNodes; //[level][owner id][bucket]
+    private final long[][] soldiers;    //[level][bucket]
+
+    //Over a snapshot's soldier counts and owner ids, which are kept and must not change afterwards.
+    public RingSummary(int[] counts, byte[] owners, Color[] palette) {
+        this.n = counts.length;
+        this.counts = counts;
+        this.owners = owners;
+        this.palette = palette;
+        int levels = 1;
+        while (((long) BASE << (levels - 1)) < this.n) {
+            levels++;
+        }
+        //level 0 from one pass over the ring
+        int buckets0 = (this.n + BASE - 1) / BASE;
+        int[][] nodes0 = new int[palette.length][buckets0];
+        long[] sold0 = new long[buckets0];
+        for (int i = 0; i < this.n; i++) {
+            nodes0[owners[i]][i / BASE]++;
+            sold0[i / BASE] += counts[i];
+        }
+        this.ownerNodes = new int[levels][][];
+        this.soldiers = new long[levels][];
+        this.ownerNodes[0] = nodes0;
+        this.soldiers[0] = sold0;
+        //each level above merges pairs of buckets from the one below
+        for (int k = 1; k < levels; k++) {
+            int[][] below = this.ownerNodes[k - 1];
+            long[] belowS = this.soldiers[k - 1];
+            int buckets = (belowS.length + 1) / 2;
+            int[][] here = new int[this.palette.length][buckets];
+            long[] hereS = new long[buckets];
+            for (int b = 0; b < belowS.length; b++) {
+                hereS[b / 2] += belowS[b];
+                for (int slot = 0; slot < this.palette.length; slot++) {
+                    here[slot][b / 2] += below[slot][b];
+                }
+            }
+            this.ownerNodes[k] = here;
+            this.soldiers[k] = hereS;
+        }
+    }
+
+    //Adds up nodes [from, to) into out. from and to may wrap past the end of the ring.
+    public void query(long from, long to, Bucket out) {
+        out.clear(this.palette.length);
+        if (to - from >= this.n) {
+            this.add(0, this.n, out);
+            return;
+        }
+        int a = (int) Math.floorMod(from, (long) this.n);
+        int len = (int) (to - from);
+        if (a + len <= this.n) {
+            this.add(a, a + len, out);
+        } else {
+            this.add(a, this.n, out);
+            this.add(0, a + len - this.n, out);
+        }
+    }
+
+    private void add(int from, int to, Bucket out) {
+        int pos = from;
+        while (pos < to) {
+            //largest aligned bucket that starts here and stays inside the range
+            int level = pos == 0 ? this.soldiers.length - 1 : Math.min(Integer.numberOfTrailingZeros(pos) - BASE_SHIFT, this.soldiers.length - 1);
+            while (level >= 0 && Math.min(pos + ((long) BASE << level), this.n) > to) {
+                level--;
+            }
+            if (level < 0) {
+                //ragged edge smaller than one bucket, read the nodes themselves
+                out.nodes[this.owners[pos]]++;
+                out.soldiers += this.counts[pos];
+                out.size++;
+                pos++;
+                continue;
+            }
+            int size = BASE << level;
+            int b = pos / size;
+            for (int slot = 0; slot < this.palette.length; slot++) {
+                out.nodes[slot] += this.ownerNodes[level][slot][b];
+            }
+            out.soldiers += this.soldiers[level][b];
+            int end = Math.min(pos + size, this.n);
+            out.size += end - pos;
+            pos = end;
+        }
+    }
+
+    public static class Bucket {
+        public int[] nodes = new int[0]; //nodes held per owner id
+        public long soldiers;
+        public int size;
+
+        void clear(int slots) {
+            if (this.nodes.length != slots) {
+                this.nodes = new int[slots];
+            } else {
+                java.util.Arrays.fill(this.nodes, 0);
+            }
+            this.soldiers = 0;
+            this.size = 0;
+        }
+
+        //Owner id holding the most nodes. A tie goes to the lower agent id, and to any agent over unowned.
+        public int majority() {
+            int best = this.nodes.length > 1 ? 1 : 0;
+            for (int slot = 2; slot < this.nodes.length; slot++) {
+                if (this.nodes[slot] > this.nodes[best]) {
+                    best = slot;
+                }
+            }
+            return this.nodes[0] > this.nodes[best] ? 0 : best;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+public class RingWorker {
+    //One arc [lo, hi) of a ring split up by PartitionedWorld, run as its own process and driven over a Unix
+    //domain socket. Next to its own nodes it keeps halo copies of the h nodes on either side, refreshed by the
+    //coordinator, which is as far as resolve (2 nodes) and visible_in_range (the visibility range) ever look.
+    //
+    //Local layout: [left halo h][own nodes len][right halo h].
+    static final byte QUIT = 0;
+    static final byte LOAD = 1;    //n lo hi h max_soldiers
+    static final byte EDGES = 2;   //-> own first h nodes, own last h nodes
+    static final byte HALO = 3;    //left halo h nodes, right halo h nodes
+    static final byte ADD = 4;     //k, then k x (node, owner, change) as World.Node.addSoldiers
+    static final byte PUT = 5;     //k, then k x (node, soldiers, owner)
+    static final byte PLAN = 6;    //direction start k, then k x (t_from t_to) -> 3 exits per segment
+    static final byte COMMIT = 7;  //direction start k, then k x (t_from t_to entry) -> writes that fell on other arcs
+    static final byte TOTALS = 8;  //agents -> soldiers and nodes of each
+    static final byte VISIBLE = 9; //owner range -> one byte per own node
+    static final byte GATHER = 10; //-> own soldiers and owners
+
+    private int n;
+    private int lo;
+    private int len;
+    private int h;
+    private int max_soldiers;
+    private int[] soldiers;
+    private byte[] owners;
+
+    //pending writes to halo nodes from COMMIT, handed back to the coordinator
+    private int[] out_nodes = new int[16];
+    private int out_count;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java RingWorker <coordinator socket>");
+            return;
+        }
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(Path.of(args[0])));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        try {
+            new RingWorker().serve(in, out);
+        } catch (EOFException e) {
+            //coordinator went away
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            byte op = in.readByte();
+            switch (op) {
+                case QUIT:
+                    return;
+                case LOAD:
+                    this.n = in.readInt();
+                    this.lo = in.readInt();
+                    this.len = in.readInt() - this.lo;
+                    this.h = in.readInt();
+                    this.max_soldiers = in.readInt();
+                    this.soldiers = new int[this.len + 2 * this.h];
+                    this.owners = new byte[this.len + 2 * this.h];
+                    break;
+                case EDGES:
+                    this.writeNodes(out, this.h, this.h);
+                    this.writeNodes(out, this.len, this.h);
+                    out.flush();
+                    break;
+                case HALO:
+                    this.readNodes(in, 0, this.h);
+                    this.readNodes(in, this.h + this.len, this.h);
+                    break;
+                case ADD:
+                    for (int k = in.readInt(); k > 0; k--) {
+                        this.add(this.local(in.readInt()), in.readByte(), in.readInt());
+                    }
+                    break;
+                case PUT:
+                    for (int k = in.readInt(); k > 0; k--) {
+                        int i = this.local(in.readInt());
+                        this.soldiers[i] = in.readInt();
+                        this.owners[i] = in.readByte();
+                    }
+                    break;
+                case PLAN: {
+                    int direction = in.readInt();
+                    int start = in.readInt();
+                    for (int k = in.readInt(); k > 0; k--) {
+                        int from = in.readInt();
+                        int to = in.readInt();
+                        for (int e = 0; e < 3; e++) {
+                            out.writeByte(this.exit(direction, start, from, to, e));
+                        }
+                    }
+                    out.flush();
+                    break;
+                }
+                case COMMIT: {
+                    int direction = in.readInt();
+                    int start = in.readInt();
+                    this.out_count = 0;
+                    for (int k = in.readInt(); k > 0; k--) {
+                        int from = in.readInt();
+                        int to = in.readInt();
+                        this.sweep(direction, start, from, to, in.readInt());
+                    }
+                    out.writeInt(this.out_count);
+                    for (int k = 0; k < this.out_count; k++) {
+                        int g = this.out_nodes[k];
+                        int i = this.local(g);
+                        out.writeInt(g);
+                        out.writeInt(this.soldiers[i]);
+                        out.writeByte(this.owners[i]);
+                    }
+                    out.flush();
+                    break;
+                }
+                case TOTALS: {
+                    int agents = in.readInt();
+                    long[] total = new long[agents + 1];
+                    int[] nodes = new int[agents + 1];
+                    for (int i = this.h; i < this.h + this.len; i++) {
+                        total[this.owners[i]] += this.soldiers[i];
+                        nodes[this.owners[i]]++;
+                    }
+                    for (int a = 1; a <= agents; a++) {
+                        out.writeLong(total[a]);
+                        out.writeInt(nodes[a]);
+                    }
+                    out.flush();
+                    break;
+                }
+                case VISIBLE: {
+                    byte owner = in.readByte();
+                    int range = in.readInt();
+                    this.writeVisible(out, owner, range);
+                    out.flush();
+                    break;
+                }
+                case GATHER:
+                    this.writeNodes(out, this.h, this.len);
+                    out.flush();
+                    break;
+                default:
+                    throw new IOException("Unknown request " + op);
+            }
+        }
+    }
+
+    private void writeNodes(DataOutputStream out, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            out.writeInt(this.soldiers[i]);
+        }
+        out.write(this.owners, from, count);
+    }
+
+    private void readNodes(DataInputStream in, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            this.soldiers[i] = in.readInt();
+        }
+        in.readFully(this.owners, from, count);
+    }
+
+    //Local index of global node g, which must be one of ours or in a halo.
+    private int local(int g) {
+        int d = Math.floorMod(g - this.lo, this.n);
+        return d < this.len + this.h ? this.h + d : d - (this.n - this.h);
+    }
+
+    private boolean own(int i) {
+        return i >= this.h && i < this.h + this.len;
+    }
+
+    //The node the resolve sweep looks at on its t'th step.
+    private static int node(int n, int direction, int start, int t) {
+        return direction == 1 ? (start + t) % n : Math.floorMod(start - t, n);
+    }
+
+    //Where the sweep leaves segment [from, to) if it comes in at from + entry, as an offset past to (0, 1 or 2).
+    //Whether World.resolve fights at a step, and how far it then skips, only depends on owners.
+    private int exit(int direction, int start, int from, int to, int entry) {
+        int t = from + entry;
+        while (t < to) {
+            byte p = this.owners[this.local(node(this.n, direction, start, t))];
+            byte q = this.owners[this.local(node(this.n, direction, start, t + 1))];
+            if (p == q || p == 0 || q == 0) {
+                t++;
+            } else if (t != this.n - 2 && this.owners[this.local(node(this.n, direction, start, t + 2))] == p) {
+                t += 3;
+            } else {
+                t += 2;
+            }
+        }
+        return t - to;
+    }
+
+    //World.resolve over steps [from, to) coming in at from + entry. A fight only writes nodes the sweep has
+    //already passed by the time it reads again, so every read here sees the ring as it was before resolve
+    //and the arcs can be swept at the same time.
+    private void sweep(int direction, int start, int from, int to, int entry) {
+        for (int t = from + entry; t < to; t++) {
+            int p = this.local(node(this.n, direction, start, t));
+            int q = this.local(node(this.n, direction, start, t + 1));
+            if (this.owners[p] == this.owners[q] || this.owners[p] == 0 || this.owners[q] == 0) {
+                continue;
+            }
+            //the last step can't trip battle, and its third node is not read
+            int q2 = t == this.n - 2 ? q : this.local(node(this.n, direction, start, t + 2));
+            int skip = BatchSimulation.fight(this.soldiers, this.owners, this.max_soldiers, p, q, q2, t == this.n - 2);
+            if (!this.own(q)) {
+                this.written(node(this.n, direction, start, t + 1));
+            }
+            if (skip == 2 && !this.own(q2)) {
+                this.written(node(this.n, direction, start, t + 2));
+            }
+            t = t + skip;
+        }
+    }
+
+    private void written(int g) {
+        if (this.out_count == this.out_nodes.length) {
+            this.out_nodes = java.util.Arrays.copyOf(this.out_nodes, 2 * this.out_count);
+        }
+        this.out_nodes[this.out_count++] = g;
+    }
+
+    //World.Node.addSoldiers
+    private void add(int i, byte owner, int change) {
+        int old = this.soldiers[i];
+        byte o = this.owners[i];
+        int s;
+        if (o == 0 || o == owner) {
+            s = old + change;
+            o = owner;
+        } else if (old >= change) {
+            s = old - change;
+        } else {
+            s = change - old;
+            o = owner;
+        }
+        if (s > this.max_soldiers) {
+            s = this.max_soldiers;
+        }
+        this.soldiers[i] = s;
+        this.owners[i] = s == 0 ? 0 : o;
+    }
+
+    //World.Node.visible_in_range for every own node, counting owner's nodes in a window slid along the arc.
+    private void writeVisible(DataOutputStream out, byte owner, int range) throws IOException {
+        int seen = 0;
+        for (int i = this.h - range; i <= this.h + range; i++) {
+            seen += this.owners[i] == owner ? 1 : 0;
+        }
+        byte[] visible = new byte[this.len];
+        for (int i = this.h; i < this.h + this.len; i++) {
+            visible[i - this.h] = (byte) (seen > 0 ? 1 : 0);
+            if (i + 1 < this.h + this.len) {
+                seen += (this.owners[i + range + 1] == owner ? 1 : 0) - (this.owners[i - range] == owner ? 1 : 0);
+            }
+        }
+        out.write(visible);
+    }
+}
@@ -1,16 +1,29 @@
 import java.awt.*;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class Simulation {
     private int scale; //Size of the ring
@@ -29,50 +42,141 @@ public class Simulation {
     public HashMap<String, Agent_Details> agentLookup;
 
     public Random rand;
+    public long seed; //what rand was started from
+    public int starting_soldiers;
+    public ReplayLog replay_out; //when set, every turn's moves and hash are recorded
+    public ReplayLog replay_in;  //when set, moves come from this log instead of the agents
+
+    //Ending matches that will never finish by elimination. Both checks are off at 0.
+    public static final int ADJUDICATE_DRAW = 0;
+    public static final int ADJUDICATE_MOST_SOLDIERS = 1;
+    public static final int REPEAT_WINDOW = 4096; //turns back that repeat_limit looks, so seen_states stays bounded
+    public int repeat_limit;    //end once the same position has come round this many times within REPEAT_WINDOW turns
+    public int stalemate_turns; //end after this many turns in a row with no change in any agent's nodes or soldiers
+    public int adjudication;    //who wins a match ended by either check
+    public MatchResult result;  //null while the match is still going
+    private HashMap<Long, Integer> seen_states = new HashMap<>(); //position key -> times seen in recent_keys
+    private long[] recent_keys = new long[REPEAT_WINDOW];          //the last REPEAT_WINDOW keys, oldest overwritten
+    private int recent_turns;                                     //keys ever added to recent_keys
+    private int unchanged_turns;
+    public MatchTrace trace; //null unless a timeline trace was requested for this match
+    public long match_id;
+    public String spool_dir; //when set, agent output is also written to spool_dir/<match_id>/<agent>.log.gz
+    public Map<String, AgentOutput> agent_output; //read by the GUI while the simulation thread runs
+    public MatchStats stats; //per-agent statistics for every turn
+    public AgentHost agent_host; //when set, Java agents run in this JVM instead of a new one each turn
+    public long service_deadline_ms; //how long a "socket" agent has to answer, including waiting its turn at the service
+    private byte[][] service_state;  //per agent, the state file of the turn for a "socket" agent
+    private byte[][] service_moves;  //and the moves it answered with
+    public boolean victory; //set by make_turn, whether or not a snapshot was kept
+
+    //When make_turn keeps a World_State in state_history. Headless runs don't need the per-turn copy of the ring.
+    //A ring off the heap is always treated as SNAPSHOT_ON_DEMAND: a snapshot copies it onto the heap whole.
+    public static final int SNAPSHOT_EAGER = 0;     //every turn, for the GUI
+    public static final int SNAPSHOT_EVERY_K = 1;   //every snapshot_every turns and the last one
+    public static final int SNAPSHOT_ON_DEMAND = 2; //only when snapshot() is called
+    public static final int SNAPSHOT_OFF = 3;
+    public int snapshot_policy;
+    public int snapshot_every;
+    private Color[] owner_palette; //owner id -> color, 0 is unowned
+    private HashMap<String, Integer> owner_ids;
+    public String checkpoint_file; //when set, make_turn saves a Checkpoint here every checkpoint_every turns
+    public int checkpoint_every;
+    private MoveBuffer last_moves;
+    //move buffers kept for the whole match, see MoveBuffer
+    private MoveBuffer[] read_moves;     //as each agent handed them in
+    private MoveBuffer[] accepted_moves; //read_moves, or NONE for an agent whose turn was illegal
+    private MoveBuffer turn_moves;       //every accepted move of the turn
+    private MoveBuffer merged_moves;
+    private int[][] placed;              //per node scratch for check_legal and merge_moves, zero between uses
+    private int[] touched;
+    private int[] touched_at;            //check_legal's stamp for the nodes already in touched
+    private int touch_stamp;
+    public int max_move_lines;           //a move file with more lines than this is rejected
+    public long max_move_bytes;          //and so is one longer than this, before any of it is read
+    private ByteBuffer move_bytes;
+    private int last_resolve_dir;
+    private int last_resolve_start;
+    private HashMap<String, World.Node_State[]> sent_state = new HashMap<>(); //last view written for each delta_state agent
 
     public Simulation(int scale, Agent_Details[] agents, int max_soldiers, int starting_soldiers, int visibility_range, int perTurn, int bonusPerTurn, HashMap<String, Agent_Details> agentLookup){
+        this(scale, agents, max_soldiers, starting_soldiers, visibility_range, ((double) perTurn) / 100.0, ((double) bonusPerTurn) / 100.0, agentLookup, new Random().nextLong());
+    }
+
+    //A new match whose resolve order comes from seed, so it can be played again from a ReplayLog.
+    public Simulation(int scale, Agent_Details[] agents, int max_soldiers, int starting_soldiers, int visibility_range, double fixedGrowthperTurn, double ownershipBonusGrowth, HashMap<String, Agent_Details> agentLookup, long seed){
+        this(scale, agents, max_soldiers, visibility_range, fixedGrowthperTurn, ownershipBonusGrowth, agentLookup,
+                new World(scale, max_soldiers, starting_soldiers, visibility_range, agents, agentLookup), 1, new Random(seed)); //true is the absorb value, will be assigned in GUI.
+        this.seed = seed;
+        this.starting_soldiers = starting_soldiers;
+        World_State ws = new World_State(this.world, 0, MoveBuffer.NONE, false, active_agents, this.step%2,0);
+        state_history.add(ws);
+    }
+
+    //Starts from a ring that is already set up, either a new match or one restored by Checkpoint.
+    Simulation(int scale, Agent_Details[] agents, int max_soldiers, int visibility_range, double fixedGrowthperTurn, double ownershipBonusGrowth, HashMap<String, Agent_Details> agentLookup, World world, int step, Random rand) {
         this.scale = scale;
 
         this.agents = agents; //not yet connected.
-        this.fixedGrowthperTurn = ((double) perTurn) / 100.0;
-        this.ownershipBonusGrowth = ((double) bonusPerTurn) / 100.0;
+        this.fixedGrowthperTurn = fixedGrowthperTurn;
+        this.ownershipBonusGrowth = ownershipBonusGrowth;
         this.visibility_range = visibility_range;
         this.max_soldiers = max_soldiers;
 
-        this.step = 1;
-        this.active_step = 1;
+        this.step = step;
+        this.active_step = step;
 
         this.state_history = new ArrayList<>();
 
         this.agentLookup = agentLookup;
-        this.rand = new Random();
-        
-        //Agent_Details[] myagents = new Agent_Details[2];
-        //Color color = new Color(100,100,50);
-        //Agent_Details red = new Agent_Details("Agent2", "red", "java", color);
-        //Agent_Details blue = new Agent_Details("Agent3", "blue", "java", Color.BLUE);
-        //myagents[0] = red;
-        //myagents[1] = blue;
-
-        this.world = new World(this.scale, this.max_soldiers, starting_soldiers, this.visibility_range, this.agents, this.agentLookup); //true is the absorb value, will be assigned in GUI.
-        //this.agents = myagents; //delete later
+        this.rand = rand;
+        this.match_id = System.currentTimeMillis();
+        this.agent_output = new ConcurrentHashMap<>();
+
+        this.world = world;
+        this.stats = new MatchStats(this.agents, this.world, this.step - 1);
+        this.world.stats = this.stats;
+        this.snapshot_policy = SNAPSHOT_EAGER;
+        this.snapshot_every = 1;
+        this.owner_palette = new Color[this.agents.length + 1];
+        this.owner_ids = new HashMap<>();
+        this.owner_palette[0] = Color.GRAY;
+        this.owner_ids.put("N", 0);
+        for (int a = 0; a < this.agents.length; a++) {
+            this.owner_palette[a + 1] = this.agents[a].getColor();
+            this.owner_ids.put(this.agents[a].locname, a + 1);
+        }
+        this.last_moves = MoveBuffer.NONE;
+        this.read_moves = new MoveBuffer[this.agents.length];
+        for (int a = 0; a < this.agents.length; a++) {
+            this.read_moves[a] = new MoveBuffer(16);
+        }
+        this.accepted_moves = new MoveBuffer[this.agents.length];
+        this.turn_moves = new MoveBuffer(32);
+        this.merged_moves = new MoveBuffer(32);
+        this.placed = new int[2][scale];
+        this.touched = new int[scale];
+        this.touched_at = new int[scale];
+        this.max_move_lines = Math.max(1024, 4 * scale);
+        this.service_deadline_ms = 10000;
+        this.service_state = new byte[this.agents.length][];
+        this.service_moves = new byte[this.agents.length][];
+        this.max_move_bytes = 32L * this.max_move_lines;
+        this.victory = this.checkVictory();
         active_agents = new HashSet<>();
         for (Agent_Details a : this.agents) {
             active_agents.add(a.locname);  
         }
-        World_State ws = new World_State(this.world, 0, new ArrayList<>(), false, active_agents, this.step%2,0);
-        state_history.add(ws);
     }
     
     public int make_state_file(Agent_Details agent, int step, double grow_percent, double bonus_grow_percent) {
+        if (agent.sparse_state && !agent.delta_state) {
+            return this.make_sparse_state_file(agent, step, grow_percent, bonus_grow_percent);
+        }
         List<World.Node_State> myView = this.world.get_perspective(agent);
         int total_soldiers = 0;
-        String counts = "";
-        String owners = "";
         int total_nodes = 0;
         for (World.Node_State s: myView) {
-            counts = counts + s.count() + ",";
-            owners = owners + s.owner() + ",";
             if (s.owner().equals("Y")) { //THIS SEEMS LIKE ITS WRONG...
                 total_soldiers = total_soldiers + s.count();
                 total_nodes++;
@@ -80,58 +184,269 @@ public class Simulation {
         }
         double bonus = 1.0 + (bonus_grow_percent*total_nodes);
         int grow = (int) (total_soldiers * grow_percent * bonus);
-        String c_string = counts.substring(0, counts.length() - 1);
-        String o_string = owners.substring(0, owners.length() - 1);
+        World.Node_State[] sent = this.sent_state.get(agent.locname);
+        StringBuilder sb = new StringBuilder();
+        if (agent.delta_state && sent != null && sent.length == myView.size()) {
+            //only what changed since the last file this agent was sent:
+            //delta <k>, then k lines of <index>,<count>,<owner>
+            int changes = 0;
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < sent.length; i++) {
+                World.Node_State s = myView.get(i);
+                if (!s.equals(sent[i])) {
+                    lines.append(i).append(',').append(s.count()).append(',').append(s.owner()).append('\n');
+                    sent[i] = s;
+                    changes++;
+                }
+            }
+            sb.append("delta ").append(changes).append('\n').append(lines);
+        } else if (agent.sparse_state) {
+            this.appendWindows(sb, agent);
+            if (agent.delta_state) {
+                this.sent_state.put(agent.locname, myView.toArray(new World.Node_State[0]));
+            }
+        } else {
+            for (World.Node_State s: myView) {
+                sb.append(s.count()).append(',');
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+            for (World.Node_State s: myView) {
+                sb.append(s.owner()).append(',');
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+            if (agent.delta_state) {
+                this.sent_state.put(agent.locname, myView.toArray(new World.Node_State[0]));
+            }
+        }
+        //append new soldier count here..Followed by max soldiers?
+        sb.append(grow).append('\n').append(max_soldiers);
+        this.write_state_file(agent, step, sb);
+        //some function appendMove() which adds the move.txt file to the end of this file.
+        return grow;
+    }
+
+    //The new soldiers make_state_file would give agent, without writing anything. An agent always sees the
+    //nodes it owns, so they are the "Y" nodes of its view.
+    private int growth(Agent_Details agent, double grow_percent, double bonus_grow_percent) {
+        int id = this.agentIndex(agent) + 1;
+        int total_soldiers = 0;
+        int total_nodes = 0;
+        for (int i = 0; i < this.scale; i++) {
+            if (this.world.ownerIdAt(i) == id) {
+                total_soldiers = total_soldiers + this.world.soldiersAt(i);
+                total_nodes++;
+            }
+        }
+        double bonus = 1.0 + (bonus_grow_percent*total_nodes);
+        return (int) (total_soldiers * grow_percent * bonus);
+    }
+
+    //Only the parts of the view the agent can see, for sparse_state agents. Costs time in what the agent
+    //owns and sees, not in the size of the ring.
+    private int make_sparse_state_file(Agent_Details agent, int step, double grow_percent, double bonus_grow_percent) {
+        StringBuilder sb = new StringBuilder();
+        int[] totals = this.appendWindows(sb, agent);
+        double bonus = 1.0 + (bonus_grow_percent*totals[1]);
+        int grow = (int) (totals[0] * grow_percent * bonus);
+        sb.append(grow).append('\n').append(max_soldiers);
+        this.write_state_file(agent, step, sb);
+        return grow;
+    }
+
+    //windows <k> <ring size>, then for each window a line <offset>,<length> followed by its counts and owners
+    //lines. Offsets are positions in the agent's view, the same ones moves use. Returns the agent's soldiers and nodes.
+    private int[] appendWindows(StringBuilder sb, Agent_Details agent) {
+        int[] windows = this.world.visibleWindows(agent.locname);
+        int n = this.world.numNodes;
+        int start = this.world.perspectives.get(agent.locname);
+        int total_soldiers = 0;
+        int total_nodes = 0;
+        sb.append("windows ").append(windows.length / 2).append(' ').append(n).append('\n');
+        for (int w = 0; w < windows.length; w += 2) {
+            int first = (start + windows[w]) % n;
+            sb.append(windows[w]).append(',').append(windows[w + 1]).append('\n');
+            for (int j = 0, g = first; j < windows[w + 1]; j++, g = g + 1 == n ? 0 : g + 1) {
+                sb.append(this.world.soldiersAt(g)).append(',');
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+            for (int j = 0, g = first; j < windows[w + 1]; j++, g = g + 1 == n ? 0 : g + 1) {
+                String owner = this.world.ownerAt(g);
+                if (owner.equals(agent.locname)) {
+                    sb.append("Y,");
+                    total_soldiers = total_soldiers + this.world.soldiersAt(g);
+                    total_nodes++;
+                } else {
+                    sb.append(owner).append(',');
+                }
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append('\n');
+        }
+        return new int[] {total_soldiers, total_nodes};
+    }
+
+    private void write_state_file(Agent_Details agent, int step, StringBuilder sb) {
+        if (agent.getLang().equals("socket")) {
+            //sent with the request in commandAgent instead
+            this.service_state[this.agentIndex(agent)] = sb.toString().getBytes(StandardCharsets.UTF_8);
+            return;
+        }
         try {
             FileWriter writer = new FileWriter(agent.locname+"/"+step+".txt");
-            writer.write(c_string);
-            writer.append("\n" + o_string);
-            //append new soldier count here..Followed by max soldiers?
-            writer.append("\n" + grow);
-            writer.append("\n" + max_soldiers);
+            writer.write(sb.toString());
             writer.close(); // Always close the writer to finalize the output and free resources
         } catch (IOException e) {
-            System.err.println("An error occurred while writing to the file: " + e.getMessage());
+            EventLog.error(EventLog.ENGINE, "An error occurred while writing to the file: " + e.getMessage());
         }
-        //some function appendMove() which adds the move.txt file to the end of this file.
-        return grow;
     }
 
-    public ArrayList<Movement> readMove(Agent_Details agent) {
-    //reads a given agents move
+    public MoveBuffer readMove(Agent_Details agent) {
+    //reads a given agents move into its buffer, which is left empty for bad moves
     //agent name is their actually name / folder loc
-    ArrayList<Movement> movements = new ArrayList<>();
-    ArrayList<Movement> movements_blank = new ArrayList<>(); //an empty movement read to return for bad moves
-        try (BufferedReader reader = new BufferedReader(new FileReader(agent.locname+"/move.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(","); // Split line into parts
-                // Process the parts array as needed
-                try {
-                    Integer.parseInt(parts[0]);
-                    Integer.parseInt(parts[1]);
-                    
-                } catch (NumberFormatException e) {
-                    System.out.println("Moves not integers: " + e.getMessage());
-                    return movements_blank;
+    int a = this.agentIndex(agent);
+    MoveBuffer movements = this.read_moves[a];
+    movements.clear();
+        if (agent.getLang().equals("socket")) {
+            byte[] answer = this.service_moves[a];
+            this.service_moves[a] = null;
+            if (answer == null) {
+                return movements; //no answer in time, like a process that left no move.txt
+            }
+            try {
+                String bad = answer.length > this.max_move_bytes
+                        ? "answer is " + answer.length + " bytes, more than " + this.max_move_bytes
+                        : this.parseMoves(Channels.newChannel(new ByteArrayInputStream(answer)), a, movements);
+                if (bad != null) {
+                    EventLog.info(EventLog.MOVES, agent.locname + " " + bad);
+                    this.stats.rejected(agent, movements.size() + 1);
+                    movements.clear();
                 }
+            } catch (IOException e) {
+                movements.clear(); //can't happen reading from memory
+            }
+            return movements;
+        }
+        try (FileChannel channel = FileChannel.open(Path.of(agent.locname, "move.txt"), StandardOpenOption.READ)) {
+            String bad = channel.size() > this.max_move_bytes
+                    ? "move file is " + channel.size() + " bytes, more than " + this.max_move_bytes
+                    : this.parseMoves(channel, a, movements);
+            if (bad != null) {
+                EventLog.info(EventLog.MOVES, agent.locname + " " + bad);
+                this.stats.rejected(agent, movements.size() + 1);
+                movements.clear();
+            }
+        } catch (IOException e) {
+            EventLog.error(EventLog.MOVES, "Error reading the file: " + e.getMessage());
+            movements.clear();
+        }
+        return movements;
+    }
 
-                if (Integer.parseInt(parts[0]) < 0 || Integer.parseInt(parts[0]) >= this.scale) {
-                    return movements_blank;
+    //One pass over the bytes of a move file, "loc,change" per line, adding each line to into as soon as it ends.
+    //Stops at the first bad byte and returns why, or null if the whole file was good. The file can't be read
+    //past max_move_bytes even if it grows while it is read.
+    private String parseMoves(ReadableByteChannel channel, int agent, MoveBuffer into) throws IOException {
+        if (this.move_bytes == null) {
+            this.move_bytes = ByteBuffer.allocateDirect(1 << 16);
+        }
+        ByteBuffer buf = this.move_bytes;
+        long total = 0;
+        int line = 1;
+        int field = 0;     //0 reading loc, 1 reading change
+        int loc = 0;
+        long value = 0;
+        int digits = 0;
+        boolean negative = false;
+        boolean signed = false;
+        boolean cr = false;
+        while (true) {
+            buf.clear();
+            int r = channel.read(buf);
+            if (r < 0) {
+                break;
+            }
+            total += r;
+            if (total > this.max_move_bytes) {
+                return "move file is more than " + this.max_move_bytes + " bytes";
+            }
+            for (int i = 0; i < r; i++) {
+                byte c = buf.get(i);
+                if (cr && c != '\n') {
+                    return "has a stray carriage return on line " + line;
                 }
-                if (parts.length != 2) {
-                    return movements_blank;
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                    if (value > 1L << 31) {
+                        return "has a number too large on line " + line;
+                    }
+                } else if ((c == '-' || c == '+') && digits == 0 && !signed) {
+                    negative = c == '-';
+                    signed = true;
+                } else if (c == ',' && field == 0 && digits > 0) {
+                    if ((negative && value != 0) || value >= this.scale) {
+                        return "moved outside the ring on line " + line;
+                    }
+                    loc = (int) value;
+                    field = 1;
+                    value = 0;
+                    digits = 0;
+                    negative = false;
+                    signed = false;
+                } else if (c == '\r') {
+                    cr = true;
+                } else if (c == '\n') {
+                    cr = false;
+                    String bad = this.endMoveLine(field, digits, negative, value, line, into);
+                    if (bad != null) {
+                        return bad;
+                    }
+                    into.add(loc, (int) (negative ? -value : value), agent);
+                    line++;
+                    field = 0;
+                    value = 0;
+                    digits = 0;
+                    negative = false;
+                    signed = false;
+                } else {
+                    return "has a bad character on line " + line;
                 }
-                
-                Movement m = new Movement(Integer.parseInt(parts[0]),Integer.parseInt(parts[1]),agent);
-                movements.add(m); //location
-                
             }
+        }
+        //the last line doesn't need a line break
+        if (field != 0 || digits != 0 || signed) {
+            String bad = this.endMoveLine(field, digits, negative, value, line, into);
+            if (bad != null) {
+                return bad;
+            }
+            into.add(loc, (int) (negative ? -value : value), agent);
+        }
+        return null;
+    }
 
-        } catch (IOException e) {
-            System.err.println("Error reading the file: " + e.getMessage());
+    private String endMoveLine(int field, int digits, boolean negative, long value, int line, MoveBuffer into) {
+        if (field != 1 || digits == 0) {
+            return "has a line that isn't loc,change on line " + line;
         }
-        return movements;
+        if (!negative && value > Integer.MAX_VALUE) {
+            return "has a number too large on line " + line;
+        }
+        if (into.size() >= this.max_move_lines) {
+            return "handed in more than " + this.max_move_lines + " moves";
+        }
+        return null;
+    }
+
+    private int agentIndex(Agent_Details agent) {
+        for (int a = 0; a < this.agents.length; a++) {
+            if (this.agents[a] == agent) {
+                return a;
+            }
+        }
+        throw new IllegalArgumentException("Not an agent in this match: " + agent.locname);
     }
 
     public void commandAgent(Agent_Details agent, int step, int new_soldiers) {
@@ -139,6 +454,15 @@ public class Simulation {
         //for testing
         String agent_loc = agent.getlocName();
         String agent_filename = agent.getFileName();
+        if (this.agent_host != null && this.agent_host.canHost(agent)) {
+            this.hostAgent(agent, step);
+            return;
+        }
+        if (agent.getLang().equals("socket")) {
+            this.callService(agent, step);
+            return;
+        }
+        Process process = null;
         try {
             // Define the command and arguments in a list
             List<String> commands = new ArrayList<>();
@@ -162,145 +486,226 @@ public class Simulation {
 
             //Create a ProcessBuilder
             ProcessBuilder builder = new ProcessBuilder(commands);
-            builder.redirectErrorStream(true); // Redirect error stream to the output stream
 
             // Start the process
             long startTime = System.nanoTime();
-            Process process = builder.start();
+            long traceStart = this.trace != null ? this.trace.now() : 0;
+            process = builder.start();
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-            }
+            //stdout and stderr are drained in the background so a chatty agent can't stall the turn
+            AgentOutput output = this.outputFor(agent);
+            Future<?> out = output.drain(process.getInputStream(), step, "");
+            Future<?> err = output.drain(process.getErrorStream(), step, " err");
 
             // Wait for the process to complete and get the exit value
             int exitValue = process.waitFor();
+            try {
+                out.get(1, TimeUnit.SECONDS);
+                err.get(1, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                //a child of the agent may still hold the pipe open, its output keeps draining in the background
+                EventLog.debug(EventLog.AGENT, agent.locname + " output still draining after exit");
+            }
             long endTime = System.nanoTime();
+            if (this.trace != null) {
+                this.trace.span(this.trace.agentTrack(this.agents, agent), agent.locname + " process", step, traceStart);
+            }
             long durationMillis = TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
-            System.out.println("Process exited with code " + exitValue + " and took " + durationMillis + " milliseconds.");
-        } catch (IOException | InterruptedException e) {
+            if (EventLog.on(EventLog.AGENT, EventLog.INFO)) {
+                EventLog.info(EventLog.AGENT, agent.locname + " exited with code " + exitValue + " and took " + durationMillis + " milliseconds.");
+            }
+        } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            //the simulation thread is being shut down, don't leave the agent writing into its folder
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
         }
 
     }
 
-    public ArrayList<Movement> merge_moves(ArrayList<ArrayList<Movement>> bothMoves) {
-        ArrayList<Movement> merged_moves = new ArrayList<>();
-        Movement[] tmp_map1 = new Movement[this.scale];
-        Movement[] tmp_map2 = new Movement[this.scale];
-        ArrayList<Movement> moves1 = bothMoves.get(0);
-        ArrayList<Movement> moves2 = bothMoves.get(1);
-        for (Movement move: moves1) {
-            if (move.change < 0) {
-                merged_moves.add(move);
-            } else {
-                if (tmp_map1[(move.loc+move.agent.myStart)%this.scale] == null) {
-                    tmp_map1[(move.loc+move.agent.myStart)%this.scale] = move;
-                } else {
-                    tmp_map1[(move.loc+move.agent.myStart)%this.scale].change = tmp_map1[(move.loc+move.agent.myStart)%this.scale].change + move.change;
-                }
-                
+    //commandAgent for an agent run in agent_host's JVM rather than in a process of its own.
+    private void hostAgent(Agent_Details agent, int step) {
+        long startTime = System.nanoTime();
+        long traceStart = this.trace != null ? this.trace.now() : 0;
+        int exitValue;
+        try {
+            exitValue = this.agent_host.run(agent, step, this.outputFor(agent));
+        } catch (InterruptedException e) {
+            //the simulation thread is being shut down
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (this.trace != null) {
+            this.trace.span(this.trace.agentTrack(this.agents, agent), agent.locname + " hosted", step, traceStart);
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        if (EventLog.on(EventLog.AGENT, EventLog.INFO)) {
+            EventLog.info(EventLog.AGENT, agent.locname + " exited with code " + exitValue + " and took " + durationMillis + " milliseconds.");
+        }
+    }
+
+    //commandAgent for an agent served over a Unix domain socket, see AgentService. The state goes with the
+    //request and the moves come back in the answer, neither touches the agent's folder.
+    private void callService(Agent_Details agent, int step) {
+        int a = this.agentIndex(agent);
+        byte[] state = this.service_state[a];
+        this.service_state[a] = null;
+        long startTime = System.nanoTime();
+        long traceStart = this.trace != null ? this.trace.now() : 0;
+        try {
+            this.service_moves[a] = AgentService.connect(Path.of(agent.getFileName())).call(this.match_id, step, agent.locname, state, this.service_deadline_ms);
+        } catch (IOException | TimeoutException e) {
+            EventLog.error(EventLog.AGENT, agent.locname + " gave no moves: " + e.getMessage());
+        } catch (InterruptedException e) {
+            //the simulation thread is being shut down
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (this.trace != null) {
+            this.trace.span(this.trace.agentTrack(this.agents, agent), agent.locname + " service", step, traceStart);
+        }
+        if (EventLog.on(EventLog.AGENT, EventLog.INFO)) {
+            EventLog.info(EventLog.AGENT, agent.locname + " answered in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+        }
+    }
+
+    public AgentOutput outputFor(Agent_Details agent) {
+        return this.agent_output.computeIfAbsent(agent.locname, name -> {
+            String spoolFile = null;
+            if (this.spool_dir != null) {
+                spoolFile = this.spool_dir + "/" + this.match_id + "/" + name + ".log.gz";
             }
-            
+            return new AgentOutput(name, spoolFile);
+        });
+    }
+
+    public void closeOutput() {
+        for (AgentOutput output : this.agent_output.values()) {
+            output.close();
         }
-        for (Movement move: moves2) {
-            if (move.change < 0) {
-                merged_moves.add(move);
-            } else {
-                if (tmp_map2[(move.loc+move.agent.myStart)%this.scale] == null) {
-                    tmp_map2[(move.loc+move.agent.myStart)%this.scale] = move;
-                } else {
-                    tmp_map2[(move.loc+move.agent.myStart)%this.scale].change = tmp_map2[(move.loc+move.agent.myStart)%this.scale].change + move.change;
+        if (this.replay_out != null) {
+            this.replay_out.close();
+        }
+    }
+
+    //Removals go through as they are. Placements are added up per node, and where both agents placed on
+    //the same node only the difference goes through, for whoever placed more. Only the first two agents'
+    //moves are merged. Fills and returns the merged buffer, which is reused every turn.
+    public MoveBuffer merge_moves(MoveBuffer[] bothMoves) {
+        MoveBuffer merged_moves = this.merged_moves;
+        merged_moves.clear();
+        int touched = 0;
+        for (int b = 0; b < 2; b++) {
+            MoveBuffer moves = bothMoves[b];
+            int[] placed = this.placed[b];
+            for (int m = 0; m < moves.size(); m++) {
+                if (moves.change(m) < 0) {
+                    merged_moves.add(moves.loc(m), moves.change(m), moves.agent(m));
+                } else if (moves.change(m) > 0) {
+                    int g = (moves.loc(m) + this.agents[moves.agent(m)].myStart) % this.scale;
+                    if (this.placed[0][g] == 0 && this.placed[1][g] == 0) {
+                        this.touched[touched++] = g;
+                    }
+                    placed[g] = placed[g] + moves.change(m);
                 }
             }
         }
-        for (int i = 0; i < this.scale; i++) {
-            
-            if (tmp_map1[i] != null && tmp_map2[i] != null) {
-                //System.out.println(tmp_map1[i]);
-                int diff = tmp_map1[i].change - tmp_map2[i].change;
-                if (diff > 0) {
-                    Movement nMove = new Movement(tmp_map1[i].loc, diff, tmp_map1[i].agent);
-                    merged_moves.add(nMove);
-                } else if (diff < 0) {
-                    Movement nMove = new Movement(tmp_map2[i].loc, -1*diff, tmp_map2[i].agent);
-                    merged_moves.add(nMove);
-                }
-
-            } else if (tmp_map1[i] != null) {
-                merged_moves.add(tmp_map1[i]);
-            } else if (tmp_map2[i] != null) {
-                merged_moves.add(tmp_map2[i]);
+        //in node order, like the full scan this replaces
+        Arrays.sort(this.touched, 0, touched);
+        for (int t = 0; t < touched; t++) {
+            int g = this.touched[t];
+            int diff = this.placed[0][g] - this.placed[1][g];
+            if (diff > 0) {
+                merged_moves.add(Math.floorMod(g - this.agents[0].myStart, this.scale), diff, 0);
+            } else if (diff < 0) {
+                merged_moves.add(Math.floorMod(g - this.agents[1].myStart, this.scale), -1*diff, 1);
             }
+            this.placed[0][g] = 0;
+            this.placed[1][g] = 0;
         }
         return merged_moves;
     }
 
-    public ArrayList<Movement> check_legal(Agent_Details agent, ArrayList<Movement> moves, int newSoldiers) {
-        //checks that all moves in moves are legal and returns an empty array list if any are illegal
-        //or the original moves if all are legal
-        System.out.println("checking moves of agent: " + agent.locname);
+    public boolean check_legal(Agent_Details agent, MoveBuffer moves, int newSoldiers) {
+        //checks that all moves in moves are legal, one illegal move makes the whole turn illegal
+        if (EventLog.on(EventLog.MOVES, EventLog.DEBUG)) {
+            EventLog.debug(EventLog.MOVES, "checking moves of agent: " + agent.locname);
+        }
         //first merge moves so that there's only one per node..
-        ArrayList<Integer> total_moves = new ArrayList<>(Collections.nCopies(this.scale, 0)); //this needs to be a full array of the full ring
+        int[] total_moves = this.placed[0]; //all zero between turns, merge_moves isn't using it yet
+        int touched = 0;
         int total_change = 0;
-        //System.out.println(total_moves.size());
-        for (Movement move : moves) {
-            System.out.println("MOVE: " + move.loc);
-            int tmp = total_moves.get(move.loc);
-            tmp = tmp + move.change;
-            total_moves.set(move.loc, tmp);
-            total_change = total_change + move.change;      
+        //a node's running total can come back to 0, so whether it is in touched yet is kept separately
+        int stamp = this.nextTouchStamp();
+        for (int m = 0; m < moves.size(); m++) {
+            if (EventLog.on(EventLog.MOVES, EventLog.TRACE)) {
+                EventLog.trace(EventLog.MOVES, "MOVE: " + moves.loc(m));
+            }
+            if (this.touched_at[moves.loc(m)] != stamp) {
+                this.touched_at[moves.loc(m)] = stamp;
+                this.touched[touched++] = moves.loc(m);
+            }
+            total_moves[moves.loc(m)] = total_moves[moves.loc(m)] + moves.change(m);
+            total_change = total_change + moves.change(m);
         }
+        boolean legal = true;
         if (total_change > newSoldiers) {
             //added too many new soldiers
-            System.out.println(agent.locname + " made an illegal move: Moved more than owned");
-            return new ArrayList<Movement>(); //return an empty list since there is an illegal move
-        }
-        //then analyze them
-        List<World.Node_State> aworld = this.world.get_perspective(agent);
-        int i = 0;
-        //System.out.println(total_moves.size());
-        for (int move : total_moves) {
-            //System.out.println(i);
-            World.Node_State state = aworld.get(i);
+            EventLog.info(EventLog.MOVES, agent.locname + " made an illegal move: Moved more than owned");
+            legal = false;
+        }
+        //then analyze them, only the positions that were moved on can be illegal
+        Arrays.sort(this.touched, 0, touched);
+        for (int t = 0; t < touched; t++) {
+            int i = this.touched[t];
+            int move = total_moves[i];
+            total_moves[i] = 0;
+            if (!legal || move == 0) {
+                continue;
+            }
+            int gloc = (agent.myStart + i)%this.scale;
             if (move < 0) {
-                if (state.owner() != "Y") {
+                String owner = this.world.ownerAt(gloc);
+                if (!owner.equals(agent.locname)) {
                     //removing from an opponent
-                    System.out.println(agent.locname + " made an illegal move: removing from an opponent");
-                    System.out.println(state.owner());
-                    return new ArrayList<Movement>(); //return an empty list since there is an illegal move
-                }
-                if (state.count() < move*-1) {
+                    EventLog.info(EventLog.MOVES, agent.locname + " made an illegal move: removing from an opponent (" + owner + ")");
+                    legal = false;
+                } else if (this.world.soldiersAt(gloc) < move*-1) {
                     //too few soldiers to remove that many
-                    System.out.println(agent.locname + " made an illegal move: Removed More than existed on that node");
-                    return new ArrayList<Movement>(); 
+                    EventLog.info(EventLog.MOVES, agent.locname + " made an illegal move: Removed More than existed on that node");
+                    legal = false;
                 }
             }
             if (move > 0) {
-                int gloc = (agent.myStart + i)%this.scale;
                 if(world.nodes.get(gloc).visible_in_range(agent.locname, this.visibility_range) != 1) {
                     //node out of range of owned nodes
-                    System.out.println(agent.locname + " made an illegal move");
-                    return new ArrayList<Movement>();
+                    EventLog.info(EventLog.MOVES, agent.locname + " made an illegal move: placed out of range");
+                    legal = false;
                 }
             }
-
-            i++;
         }
+        return legal;
+    }
 
-        return moves;
+    private int nextTouchStamp() {
+        if (++this.touch_stamp == 0) {
+            Arrays.fill(this.touched_at, 0);
+            this.touch_stamp = 1;
+        }
+        return this.touch_stamp;
     }
 
     public ArrayList<World_State> get_state_history() {
         return this.state_history;
     }
 
-    public void make_turn() {
+    //Plays one turn. Returns the turn's snapshot, or null when the snapshot policy skipped it.
+    public World_State make_turn() {
         //save state history
         //update state files for both agents
         //command both agents to make new move.txt files
-        //read both agent's moves into a Movement arrays while CHECKING FOR LEGAL MOVES
+        //read both agent's moves into move buffers while CHECKING FOR LEGAL MOVES
         //Resolve local conflicts in the two movement arrays into a new single array
         //Add the remaining soldiers from the merged movement array to the world
         //Battle -resolve edge battles in the world.
@@ -308,106 +713,340 @@ public class Simulation {
         
         //iterate the step count
         
-        ArrayList<ArrayList<Movement>> bothMoves = new ArrayList<>();
-        ArrayList<Movement> bothMoves_combo = new ArrayList<>();
-        for (Agent_Details agent: agents) {
-            int grow = this.make_state_file(agent, this.step, this.fixedGrowthperTurn, this.ownershipBonusGrowth);
+        MoveBuffer[] bothMoves = this.accepted_moves;
+        MoveBuffer bothMoves_combo = this.turn_moves;
+        bothMoves_combo.clear();
+        long phase;
+        for (int a = 0; a < agents.length; a++) {
+            Agent_Details agent = agents[a];
+            phase = this.traceNow();
+            //a replay takes its moves from the log, so the agent's folder is left alone
+            int grow = this.replay_in != null ? this.growth(agent, this.fixedGrowthperTurn, this.ownershipBonusGrowth)
+                    : this.make_state_file(agent, this.step, this.fixedGrowthperTurn, this.ownershipBonusGrowth);
+            this.stats.growth(agent, grow);
+            this.traceSpan("state file " + agent.locname, phase);
             //grow now includes the bonus growth
-            this.commandAgent(agent, this.step, grow);
-            ArrayList<Movement> moves = this.readMove(agent); //should return an empty arraylist if the moves were illegal.
-            moves = this.check_legal(agent, moves, grow);
-            System.out.println(moves.toString());
-            bothMoves.add(moves);
+            MoveBuffer read;
+            if (this.replay_in != null) {
+                read = this.read_moves[a];
+                this.replay_in.movesFor(this.step, a, read);
+                phase = this.traceNow();
+            } else {
+                this.commandAgent(agent, this.step, grow);
+                phase = this.traceNow();
+                read = this.readMove(agent); //should return an empty buffer if the moves were illegal.
+            }
+            if (this.replay_out != null) {
+                this.replay_out.moves(this.step, a, read);
+            }
+            MoveBuffer moves = read;
+            if (!this.check_legal(agent, read, grow)) {
+                this.stats.rejected(agent, read.size());
+                moves = MoveBuffer.NONE;
+            }
+            this.traceSpan("legality " + agent.locname, phase);
+            if (EventLog.on(EventLog.MOVES, EventLog.DEBUG)) {
+                EventLog.debug(EventLog.MOVES, agent.locname + " moves: " + moves);
+            }
+            bothMoves[a] = moves;
             bothMoves_combo.addAll(moves);
-            System.out.println(bothMoves.toString());
             
         }
-        ArrayList<Movement> merged_moves = this.merge_moves(bothMoves);
+        phase = this.traceNow();
+        MoveBuffer merged_moves = this.merge_moves(bothMoves);
 
-        for (Movement move : merged_moves) {
-            int gi = (move.loc + move.agent.myStart)%this.scale;
-            this.world.getNode(gi).addSoldiers(move.agent, move.change);
+        for (int m = 0; m < merged_moves.size(); m++) {
+            Agent_Details mover = this.agents[merged_moves.agent(m)];
+            int gi = (merged_moves.loc(m) + mover.myStart)%this.scale;
+            this.world.getNode(gi).addSoldiers(mover, merged_moves.change(m));
         }
+        this.traceSpan("merge", phase);
         //EDGE BATTLES
+        phase = this.traceNow();
         int resolve_dir = this.step%2;
         int resolve_start = this.rand.nextInt(this.scale);
         //int resolve_start = 19;
         this.world.resolve(resolve_dir, resolve_start);
+        this.traceSpan("resolve", phase);
 
         //Check for Victory
-        //right now it happens when world_state object is created.
+        this.stats.endTurn(step);
+        this.victory = this.checkVictory();
+        if (this.victory) {
+            this.result = new MatchResult(step, this.leader(), MatchResult.ELIMINATION);
+        } else {
+            this.result = this.checkEarlyEnd(step, resolve_dir, resolve_start);
+            this.victory = this.result != null;
+        }
+        if (this.replay_out != null) {
+            this.replay_out.turn(step, this.world.hash);
+            if (this.result != null) {
+                this.replay_out.result(this.result);
+            }
+        }
+        this.last_moves = bothMoves_combo.freeze();
+        this.last_resolve_dir = resolve_dir;
+        this.last_resolve_start = resolve_start;
 
         //bothMoves_combo actually needs to store the state after the edge battle...
-        World_State ws = new World_State(world, step, bothMoves_combo, false, active_agents,resolve_dir,resolve_start);
-        state_history.add(ws);
+        World_State ws = null;
+        if (!this.world.offHeap() && (this.snapshot_policy == SNAPSHOT_EAGER
+                || (this.snapshot_policy == SNAPSHOT_EVERY_K && (this.step % this.snapshot_every == 0 || this.victory)))) {
+            phase = this.traceNow();
+            ws = new World_State(world, step, this.last_moves, this.victory, active_agents,resolve_dir,resolve_start);
+            state_history.add(ws);
+            this.traceSpan("snapshot", phase);
+        }
         this.step++;
+        if (this.checkpoint_every > 0 && this.checkpoint_file != null && (this.step - 1) % this.checkpoint_every == 0) {
+            phase = this.traceNow();
+            Checkpoint.capture(this).writeInBackground(this.checkpoint_file);
+            this.traceSpan("checkpoint", phase);
+        }
+        return ws;
     }
 
-    public static class Movement {
-        public int loc;
-        public int change;
-        public Agent_Details agent;
-        public Movement(int loc, int change, Agent_Details agent) {
-            this.loc = loc;
-            this.change = change;
-            this.agent = agent;
+    //Someone has lost once an agent has no soldiers left on the ring.
+    private boolean checkVictory() {
+        int last = this.stats.size() - 1;
+        for (int a = 0; a < this.stats.agentCount(); a++) {
+            if (this.stats.get(last, a, MatchStats.SOLDIERS) == 0) {
+                return true;
+            }
         }
-        public String toString() {
-            return "(" + agent.locname + ", "+ this.loc + ", " + this.change + ")";
+        return false;
+    }
+
+    //Repeated rings and stalemates, see repeat_limit and stalemate_turns.
+    private MatchResult checkEarlyEnd(int step, int resolve_dir, int resolve_start) {
+        if (this.repeat_limit > 0) {
+            int seen = this.remember(this.positionKey(resolve_dir, resolve_start));
+            if (seen >= this.repeat_limit) {
+                return new MatchResult(step, this.adjudicate(), MatchResult.REPETITION);
+            }
+        }
+        if (this.stalemate_turns > 0) {
+            int last = this.stats.size() - 1;
+            boolean changed = last == 0;
+            for (int a = 0; a < this.stats.agentCount() && !changed; a++) {
+                changed = this.stats.get(last, a, MatchStats.NODES) != this.stats.get(last - 1, a, MatchStats.NODES)
+                        || this.stats.get(last, a, MatchStats.SOLDIERS) != this.stats.get(last - 1, a, MatchStats.SOLDIERS);
+            }
+            this.unchanged_turns = changed ? 0 : this.unchanged_turns + 1;
+            if (this.unchanged_turns >= this.stalemate_turns) {
+                return new MatchResult(step, this.adjudicate(), MatchResult.STALEMATE);
+            }
+        }
+        return null;
+    }
+
+    //Adds key to the last REPEAT_WINDOW keys and returns how often it is in them now.
+    private int remember(long key) {
+        int slot = this.recent_turns % REPEAT_WINDOW;
+        if (this.recent_turns >= REPEAT_WINDOW) {
+            this.seen_states.computeIfPresent(this.recent_keys[slot], (k, v) -> v > 1 ? v - 1 : null);
+        }
+        this.recent_keys[slot] = key;
+        this.recent_turns++;
+        return this.seen_states.merge(key, 1, Integer::sum);
+    }
+
+    //The early end bookkeeping, for Checkpoint: the remembered keys oldest first and the stalemate count.
+    long[] recentKeys() {
+        int kept = Math.min(this.recent_turns, REPEAT_WINDOW);
+        long[] keys = new long[kept];
+        for (int k = 0; k < kept; k++) {
+            keys[k] = this.recent_keys[(this.recent_turns - kept + k) % REPEAT_WINDOW];
+        }
+        return keys;
+    }
+
+    int unchangedTurns() {
+        return this.unchanged_turns;
+    }
+
+    void restoreEarlyEnd(long[] keys, int unchanged_turns) {
+        for (long key : keys) {
+            this.remember(key);
+        }
+        this.unchanged_turns = unchanged_turns;
+    }
+
+    //What the rest of the match depends on apart from the agents: the ring, the random state the next resolve
+    //starts come from, and this turn's resolve. java.util.Random only gives its state up by serializing.
+    private long positionKey(int resolve_dir, int resolve_start) {
+        long key = this.world.hash;
+        key = key * 31 + resolve_dir;
+        key = key * 31 + resolve_start;
+        for (byte b : Checkpoint.randomState(this.rand)) {
+            key = (key ^ b) * 0x100000001B3L;
+        }
+        return key;
+    }
+
+    private String adjudicate() {
+        return this.adjudication == ADJUDICATE_MOST_SOLDIERS ? this.leader() : null;
+    }
+
+    //The agent with the most soldiers, or null when it's a tie.
+    private String leader() {
+        int last = this.stats.size() - 1;
+        String best = null;
+        long most = -1;
+        for (int a = 0; a < this.stats.agentCount(); a++) {
+            long soldiers = this.stats.get(last, a, MatchStats.SOLDIERS);
+            if (soldiers > most) {
+                most = soldiers;
+                best = this.stats.agent(a);
+            } else if (soldiers == most) {
+                best = null;
+            }
+        }
+        return best;
+    }
+
+    private static int[] ringCounts(World w) {
+        int[] counts = new int[w.numNodes];
+        w.copySoldiers(counts);
+        return counts;
+    }
+
+    //World and snapshots both number owners a + 1 for agents[a], with 0 for unowned.
+    private static byte[] ringOwnerIds(World w) {
+        byte[] owners = new byte[w.numNodes];
+        w.copyOwnerIds(owners);
+        return owners;
+    }
+
+    //Snapshot of the ring as it is now, after the last finished turn. Not added to state_history.
+    public World_State snapshot() {
+        return new World_State(this.world, this.step - 1, this.last_moves, this.victory, this.active_agents, this.last_resolve_dir, this.last_resolve_start);
+    }
+
+    private int ownerId(String owner) {
+        Integer id = this.owner_ids.get(owner);
+        return id == null ? 0 : id;
+    }
+
+    private long traceNow() {
+        return this.trace != null ? this.trace.now() : 0;
+    }
+
+    private void traceSpan(String phase, long start) {
+        if (this.trace != null) {
+            this.trace.span(MatchTrace.ENGINE_TRACK, phase, this.step, start);
         }
     }
 
     public class World_State {
-    public int step;
+    //A finished turn. Everything is filled in by the constructor and never changed afterwards,
+    //so a snapshot can be handed from the simulation thread to the GUI without locking.
+    //The ring is kept as soldier counts and owner ids; counts and owners are read-only views over them
+    //and owner colors are only looked up when something draws them.
+    public final int step;
     //public int superStep;
-    public List<Integer> counts;
-    public List<Color> owners; //made it colors for convienience.
-    public ArrayList<Movement> moves;
-    public Boolean victory;
-    public int resolve_dir;
-    public int resolve_start;
-    public HashSet<String> active_agents;
-    public HashMap<String, Integer> player_totals;
-    public World_State(World w, int step, ArrayList<Movement> moves, Boolean victory, HashSet<String> active_agents, int resolve_dir, int resolve_start) {
+    private final int[] count_array;
+    private final byte[] owner_ids; //0 is unowned, a + 1 is agents[a]
+    private final Color[] palette;  //owner id -> color
+    public final List<Integer> counts;
+    public final List<Color> owners; //made it colors for convienience.
+    public final MoveBuffer moves; //frozen
+    public final Boolean victory;
+    public final int resolve_dir;
+    public final int resolve_start;
+    public final Set<String> active_agents;
+    public final Map<String, Integer> player_totals;
+    private final RingSummary summary; //bucketed owners and soldiers for drawing big rings, null for small ones
+    public final TerritoryIndex territory; //runs of same-owner nodes
+    public final long hash; //World.hash at the end of the turn
+    public final MatchResult result; //set on the turn that ended the match
+    public World_State(World w, int step, MoveBuffer moves, Boolean victory, HashSet<String> active_agents, int resolve_dir, int resolve_start) {
+        this(step, ringCounts(w), ringOwnerIds(w), w.hash, moves, victory, active_agents, resolve_dir, resolve_start, Simulation.this.result);
+    }
+    //From arrays that nothing else will change, e.g. read back from a Checkpoint.
+    World_State(int step, int[] count_array, byte[] owner_ids, long hash, MoveBuffer moves, Boolean victory, Set<String> active_agents, int resolve_dir, int resolve_start, MatchResult result) {
         this.step = step;
+        this.hash = hash;
+        this.result = result;
         //this.superStep = superStep;
-        this.counts = new ArrayList<>();
-        this.owners = new ArrayList<>();
-        this.moves = moves;
+        int n = count_array.length;
+        this.count_array = count_array;
+        this.owner_ids = owner_ids;
+        this.palette = owner_palette;
+        this.moves = moves.freeze();
         this.resolve_dir = resolve_dir;
         this.resolve_start = resolve_start;
-        this.victory = victory;
-        this.active_agents = active_agents;
-        this.player_totals = new HashMap<>();
+        this.active_agents = Collections.unmodifiableSet(new HashSet<>(active_agents));
+        TerritoryIndex territory = new TerritoryIndex(16);
+        int[] totals = new int[this.palette.length];
+
+        //a run of one owner at a time, found and added up with RingScan
+        for (int i = 0; i < n; ) {
+            int end = n == 0 ? 0 : RingScan.SCAN.nextChange(owner_ids, i, n - 1) + 1;
+            int id = owner_ids[i];
+            long sum = RingScan.SCAN.sum(count_array, i, end);
+            totals[id] += (int) sum;
+            territory.addRun(id, end - i, sum);
+            i = end;
+        }
+        HashMap<String, Integer> player_totals = new HashMap<>();
         for (String a : active_agents) {
-            this.player_totals.put(a, 0);
+            int id = ownerId(a);
+            player_totals.put(a, id > 0 ? totals[id] : 0);
         }
-
-        for (int i = 0; i < w.nodes.size(); i++) {
-            World.Node node = w.nodes.get(i);
-            this.counts.add(node.getSoldiers());
-            String anonOwner = node.getOwner();
-            Color c;
-            if (anonOwner.equals("N")) {
-                c = Color.GRAY;
-            } else {
-                //System.out.println();
-                //System.out.println(anonOwner);
-                //System.out.println(w.anonToName.get(anonOwner));
-                //System.out.println(agentLookup.get(w.anonToName.get(anonOwner)));
-                //System.out.println();
-                c = agentLookup.get(anonOwner).getColor();
-                int tmp_count = this.player_totals.get(anonOwner);
-                this.player_totals.put(anonOwner,tmp_count+node.getSoldiers());
-                //c = Color.BLUE;
-            }
-            this.owners.add(c);
-        }
-        for (int s : this.player_totals.values()) {
+        for (int s : player_totals.values()) {
             if (s == 0) {
-                this.victory = true; //OBVIOUSLY THIS FUNCTION ONLY WORKS WITH 2 PLAYERS
+                victory = true; //OBVIOUSLY THIS FUNCTION ONLY WORKS WITH 2 PLAYERS
             }
         }
+        this.victory = victory;
+        this.counts = new AbstractList<Integer>() {
+            public Integer get(int i) {
+                return count_array[i];
+            }
+            public int size() {
+                return count_array.length;
+            }
+        };
+        this.owners = new AbstractList<Color>() {
+            public Color get(int i) {
+                return palette[owner_ids[i]];
+            }
+            public int size() {
+                return owner_ids.length;
+            }
+        };
+        this.player_totals = Collections.unmodifiableMap(player_totals);
+        this.territory = territory;
+        //built here, on whichever thread makes the snapshot, so the first paint on the EDT doesn't pay for it
+        this.summary = n >= RingSummary.MIN_NODES ? new RingSummary(count_array, owner_ids, this.palette) : null;
+    }
+    //Bucketed owners and soldiers for drawing big rings, null for small ones.
+    public RingSummary summary() {
+        return this.summary;
+    }
+    public int size() {
+        return this.count_array.length;
+    }
+    //The arrays behind counts and owners. Shared, not copied, so never write to them.
+    int[] countArray() {
+        return this.count_array;
+    }
+    byte[] ownerIdArray() {
+        return this.owner_ids;
+    }
+    Color[] palette() {
+        return this.palette;
+    }
+    public int count(int i) {
+        return this.count_array[i];
+    }
+    public Color color(int i) {
+        return this.palette[this.owner_ids[i]];
+    }
+    //Color of an owner id, e.g. one of territory's runs.
+    public Color ownerColor(int id) {
+        return this.palette[id];
     }
     public int get_player_total(Agent_Details agent) {
         return this.player_totals.get(agent.locname);
@@ -421,17 +1060,58 @@ public class Simulation {
  
 
     public static void main(String[] args) {
-        Agent_Details[] myagents = new Agent_Details[2];
-        Color color = new Color(100,100,50);
-        Agent_Details red = new Agent_Details("Agent2", "red", "java", color);
-        Agent_Details blue = new Agent_Details("Agent3", "blue", "java", Color.BLUE);
-        myagents[0] = red;
-        myagents[1] = blue;
-        //Simulation sim = new Simulation(15, myagents, 10000, 50, 5, 10);
-        //sim.make_state_file(red, 0, 1.5);
-        //sim.make_turn();
-        //sim.make_turn();
-        //sim.make_turn();
+        //Headless match with the GUI's default settings:
+        //java Simulation <ring size> <turns> <stats.csv> <file,folder,lang> <file,folder,lang> ...
+        if (args.length < 5) {
+            System.err.println("usage: java Simulation <ring size> <turns> <stats.csv> <file,folder,lang> <file,folder,lang> ...");
+            return;
+        }
+        Color[] colors = {Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE, Color.MAGENTA};
+        Agent_Details[] myagents = new Agent_Details[args.length - 3];
+        HashMap<String, Agent_Details> lookup = new HashMap<>();
+        for (int a = 0; a < myagents.length; a++) {
+            String[] parts = args[a + 3].split(",", 3);
+            myagents[a] = new Agent_Details(parts[0], parts[1], parts.length > 2 ? parts[2] : "java", colors[a % colors.length]);
+            lookup.put(parts[1], myagents[a]);
+            new java.io.File(parts[1]).mkdirs();
+        }
+        Simulation sim = new Simulation(Integer.parseInt(args[0]), myagents, 10000, 75, 5, 10, 5, lookup);
+        for (Agent_Details agent : myagents) {
+            agent.delta_state = Boolean.getBoolean("ringwars.delta");   //-Dringwars.delta=true sends only what changed after the first turn
+            agent.sparse_state = Boolean.getBoolean("ringwars.sparse"); //-Dringwars.sparse=true sends only the nodes agents can see
+        }
+        sim.snapshot_policy = SNAPSHOT_OFF; //everything needed is in sim.stats
+        sim.max_move_lines = Integer.getInteger("ringwars.move_lines", sim.max_move_lines);
+        sim.max_move_bytes = Long.getLong("ringwars.move_bytes", 32L * sim.max_move_lines);
+        sim.repeat_limit = Integer.getInteger("ringwars.repeat_limit", 0);       //early end is off unless asked for
+        sim.stalemate_turns = Integer.getInteger("ringwars.stalemate_turns", 0);
+        sim.adjudication = "soldiers".equals(System.getProperty("ringwars.adjudicate")) ? ADJUDICATE_MOST_SOLDIERS : ADJUDICATE_DRAW;
+        sim.service_deadline_ms = Long.getLong("ringwars.service_ms", sim.service_deadline_ms); //for agents given as <socket path>,<folder>,socket
+        if (Boolean.getBoolean("ringwars.warm")) { //-Dringwars.warm=true runs Java agents inside this JVM
+            sim.agent_host = new AgentHost(Long.getLong("ringwars.agent_ms", 10000));
+        }
+        String replayFile = System.getProperty("ringwars.replay"); //-Dringwars.replay=<file> records the match for ReplayLog
+        if (replayFile != null) {
+            try {
+                sim.replay_out = ReplayLog.record(replayFile, sim);
+            } catch (IOException e) {
+                System.err.println("Failed to start replay log: " + e.getMessage());
+            }
+        }
+        int turns = Integer.parseInt(args[1]);
+        for (int t = 0; t < turns; t++) {
+            sim.make_turn();
+            if (sim.victory) {
+                break;
+            }
+        }
+        sim.closeOutput();
+        System.out.println(sim.result != null ? sim.result.toString() : "No result after " + turns + " turns");
+        try {
+            sim.stats.writeCsv(args[2]);
+        } catch (IOException e) {
+            System.err.println("Failed to write stats: " + e.getMessage());
+        }
     }
 
 
@@ -0,0 +1,143 @@
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+public class SimulationRunner {
+    //Runs Simulation.make_turn on its own thread so agents, file I/O and resolve never run on the Swing EDT.
+    //Each finished turn's World_State is handed over through a bounded queue. When the GUI falls behind
+    //the queue fills up and the producer waits, so it never runs more than `capacity` turns ahead of the display.
+    public static final long SHUTDOWN_WAIT_MS = 5000;
+
+    private final Simulation sim;
+    private final BlockingQueue<Simulation.World_State> ready;
+    private final Thread thread;
+    private final Runnable onProduced; //called on the simulation thread after each snapshot is queued
+    private final Consumer<RuntimeException> onFailed; //called on the simulation thread if make_turn throws, which ends it
+
+    private int requested; //turns still owed to step/precalc requests, guarded by this
+    private boolean continuous; //keep producing until paused, guarded by this
+    private boolean until_victory; //keep producing until a snapshot reports victory, guarded by this
+    private volatile long produced; //turns produced since the runner started
+    private volatile boolean stopped;
+    private volatile Simulation.World_State latest;
+
+    public SimulationRunner(Simulation sim, int capacity, Runnable onProduced, Consumer<RuntimeException> onFailed) {
+        this.sim = sim;
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.onProduced = onProduced;
+        this.onFailed = onFailed;
+        this.latest = sim.state_history.get(sim.state_history.size() - 1);
+        this.thread = new Thread(this::produce, "SimulationRunner");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public synchronized void request(int turns) {
+        this.requested += turns;
+        this.notifyAll();
+    }
+
+    public synchronized void setContinuous(boolean continuous) {
+        this.continuous = continuous;
+        this.notifyAll();
+    }
+
+    public synchronized void requestUntilVictory() {
+        this.until_victory = true;
+        this.notifyAll();
+    }
+
+    //Drops any outstanding step/precalc requests. A turn already in progress still finishes.
+    public synchronized void cancel() {
+        this.requested = 0;
+        this.until_victory = false;
+    }
+
+    //True while a requested turn has not been produced yet.
+    public synchronized boolean isBusy() {
+        return this.requested > 0 || this.continuous || this.until_victory;
+    }
+
+    //True while step or precalc requests are outstanding, ignoring continuous play.
+    public synchronized boolean isPrecalculating() {
+        return this.requested > 0 || this.until_victory;
+    }
+
+    public long getProduced() {
+        return this.produced;
+    }
+
+    public synchronized int pending() {
+        return this.requested;
+    }
+
+    //The most recently produced snapshot. Safe to read from any thread.
+    public Simulation.World_State getLatest() {
+        return this.latest;
+    }
+
+    //Moves every finished snapshot into `into`, oldest first. Returns how many were moved.
+    public int drainTo(List<Simulation.World_State> into) {
+        return this.ready.drainTo(into);
+    }
+
+    //The oldest finished snapshot, or null if none is ready.
+    public Simulation.World_State poll() {
+        return this.ready.poll();
+    }
+
+    //Stops producing and waits up to SHUTDOWN_WAIT_MS for a turn in progress to give up, so a new runner never
+    //plays a turn alongside this one in the same agent folders. Returns false if the thread is still running.
+    public boolean shutdown() throws InterruptedException {
+        this.stopped = true;
+        this.thread.interrupt();
+        this.thread.join(SHUTDOWN_WAIT_MS);
+        return !this.thread.isAlive();
+    }
+
+    private void produce() {
+        try {
+            while (!this.stopped) {
+                synchronized (this) {
+                    while (!this.stopped && !this.continuous && !this.until_victory && this.requested == 0) {
+                        this.wait();
+                    }
+                }
+                if (this.stopped) {
+                    return;
+                }
+                Simulation.World_State ws = this.sim.make_turn();
+                if (ws == null) {
+                    ws = this.sim.snapshot(); //the display needs every turn whatever the policy says
+                }
+                this.ready.put(ws);
+                this.latest = ws;
+                this.produced++;
+                synchronized (this) {
+                    if (this.requested > 0) {
+                        this.requested--;
+                    }
+                    if (ws.victory) {
+                        this.until_victory = false;
+                    }
+                }
+                if (this.onProduced != null) {
+                    this.onProduced.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            //shut down while waiting for work or for the display to catch up
+        } catch (RuntimeException e) {
+            EventLog.error(EventLog.ENGINE, "Simulation thread stopped: " + e);
+            synchronized (this) {
+                this.requested = 0;
+                this.continuous = false;
+                this.until_victory = false;
+            }
+            if (this.onFailed != null) {
+                this.onFailed.accept(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import javax.imageio.ImageIO;
+
+public class SpriteCache {
+    //Faces and arrows for the display, decoded off the EDT and pre-scaled into display-compatible images.
+    //Lookups are plain array reads by palette index (the value in COREapp.faceLookup) and size tier.
+    //Until loading finishes every lookup returns null and callers simply skip drawing that sprite.
+    public static final int FULL = 0;  //original size, 351+ soldiers
+    public static final int MID = 1;   //27px, 201-350 soldiers
+    public static final int SMALL = 2; //24px, 100-200 soldiers
+    public static final int TINY = 3;  //the shared 20px mild face, under 100 soldiers
+    private static final int[] TIER_SIZES = {-1, 27, 24};
+
+    //palette order matches the face index handed out in COREapp.addAgent
+    private static final String[] FACE_FILES = {"cartoonFace.gif", "angryEyebrowFace.gif", "angryTongueFace.gif", "dullFace.gif", "crosseyedFace.gif"};
+    private static final String MILD_FACE = "mildFace.gif";
+    private static final String CLOCKWISE = "redclockwise.gif";
+    private static final String COUNTERCLOCKWISE = "bluecounterclockwise.gif";
+
+    private volatile BufferedImage[][] faces; //[palette][tier], published once fully built
+    private volatile BufferedImage tinyFace;
+    private volatile BufferedImage clockwise;
+    private volatile BufferedImage counterclockwise;
+    private final CompletableFuture<Void> loaded;
+
+    //Starts decoding everything in dir in the background. onLoaded runs on the loader thread when done.
+    public SpriteCache(String dir, Runnable onLoaded) {
+        this.loaded = CompletableFuture.runAsync(() -> this.load(dir));
+        if (onLoaded != null) {
+            this.loaded.thenRun(onLoaded);
+        }
+    }
+
+    public boolean isLoaded() {
+        return this.loaded.isDone();
+    }
+
+    public static int tierFor(int count) {
+        if (count < 100) {
+            return TINY;
+        }
+        if (count < 201) {
+            return SMALL;
+        }
+        if (count < 351) {
+            return MID;
+        }
+        return FULL;
+    }
+
+    public BufferedImage face(int palette, int tier) {
+        if (tier == TINY) {
+            return this.tinyFace;
+        }
+        BufferedImage[][] f = this.faces;
+        if (f == null) {
+            return null;
+        }
+        BufferedImage[] tiers = f[palette % f.length];
+        return tiers == null ? null : tiers[tier];
+    }
+
+    public BufferedImage getClockwise() {
+        return this.clockwise;
+    }
+
+    public BufferedImage getCounterclockwise() {
+        return this.counterclockwise;
+    }
+
+    private void load(String dir) {
+        BufferedImage[][] built = new BufferedImage[FACE_FILES.length][];
+        for (int p = 0; p < FACE_FILES.length; p++) {
+            BufferedImage src = read(dir, FACE_FILES[p]);
+            if (src == null) {
+                continue;
+            }
+            built[p] = new BufferedImage[TIER_SIZES.length];
+            for (int t = 0; t < TIER_SIZES.length; t++) {
+                built[p][t] = scaled(src, TIER_SIZES[t]);
+            }
+        }
+        BufferedImage mild = read(dir, MILD_FACE);
+        this.tinyFace = mild == null ? null : scaled(mild, 20);
+        BufferedImage cw = read(dir, CLOCKWISE);
+        this.clockwise = cw == null ? null : scaled(cw, -1);
+        BufferedImage ccw = read(dir, COUNTERCLOCKWISE);
+        this.counterclockwise = ccw == null ? null : scaled(ccw, -1);
+        this.faces = built;
+    }
+
+    private static BufferedImage read(String dir, String name) {
+        try {
+            File f = new File(dir, name);
+            if (!f.exists()) {
+                EventLog.debug(EventLog.GUI, "Missing sprite " + f.getPath());
+                return null;
+            }
+            return ImageIO.read(f);
+        } catch (IOException e) {
+            EventLog.error(EventLog.GUI, "Could not load sprite " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    //Copies src into an image in the screen's native format, scaled to size x size (or kept as is for size -1).
+    private static BufferedImage scaled(BufferedImage src, int size) {
+        int w = size < 0 ? src.getWidth() : size;
+        int h = size < 0 ? src.getHeight() : size;
+        BufferedImage dst;
+        if (GraphicsEnvironment.isHeadless()) {
+            dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        } else {
+            dst = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDefaultConfiguration().createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        }
+        Graphics2D g = dst.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(src, 0, 0, w, h, null);
+        g.dispose();
+        return dst;
+    }
+}
@@ -0,0 +1,118 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import javax.swing.*;
+
+public class StatsChart extends JPanel {
+    //Statistics tab: one line per agent for the chosen MatchStats column over the turns played so far.
+    //Polls the stats a couple of times a second while showing, the simulation thread never waits on it.
+    private static final long serialVersionUID = 1L;
+    private MatchStats stats;
+    private Agent_Details[] agents;
+    private final JComboBox<String> column = new JComboBox<>(MatchStats.COLUMNS);
+    private final Plot plot = new Plot();
+    private int drawnSize = -1;
+
+    public StatsChart() {
+        super(new BorderLayout());
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        controls.add(new JLabel("Show: "));
+        controls.add(this.column);
+        JButton saveButton = new JButton("Save CSV");
+        saveButton.setToolTipText("Write every agent's statistics for every turn to stats/");
+        saveButton.addActionListener(e -> this.saveCsv());
+        controls.add(saveButton);
+        this.column.addActionListener(e -> this.plot.repaint());
+        this.add(controls, BorderLayout.NORTH);
+        this.plot.setBackground(Color.WHITE);
+        this.add(this.plot, BorderLayout.CENTER);
+        new Timer(500, e -> {
+            if (this.isShowing() && this.stats != null && this.stats.size() != this.drawnSize) {
+                this.plot.repaint();
+            }
+        }).start();
+    }
+
+    public void setStats(MatchStats stats, Agent_Details[] agents) {
+        this.stats = stats;
+        this.agents = agents;
+        this.drawnSize = -1;
+        this.plot.repaint();
+    }
+
+    private void saveCsv() {
+        if (this.stats == null) {
+            JOptionPane.showMessageDialog(this, "No game loaded yet.");
+            return;
+        }
+        File statsDir = new File("stats");
+        if (!statsDir.exists()) {
+            statsDir.mkdirs();
+        }
+        String filename = "stats/match_" + System.currentTimeMillis() + ".csv";
+        try {
+            this.stats.writeCsv(filename);
+            JOptionPane.showMessageDialog(this, "Saved " + this.stats.size() + " turns to " + filename);
+        } catch (IOException e) {
+            System.err.println("Failed to write stats: " + e.getMessage());
+        }
+    }
+
+    private class Plot extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            MatchStats stats = StatsChart.this.stats;
+            if (stats == null) {
+                g.drawString("Load a game to see statistics", 40, 40);
+                return;
+            }
+            int size = stats.size();
+            drawnSize = size;
+            int c = column.getSelectedIndex();
+            long max = 1;
+            for (int r = 0; r < size; r++) {
+                for (int a = 0; a < stats.agentCount(); a++) {
+                    max = Math.max(max, stats.get(r, a, c));
+                }
+            }
+            int left = 60;
+            int top = 20;
+            int w = this.getWidth() - left - 20;
+            int h = this.getHeight() - top - 40;
+            if (w <= 0 || h <= 0) {
+                return;
+            }
+            g.setColor(Color.BLACK);
+            g.drawLine(left, top, left, top + h);
+            g.drawLine(left, top + h, left + w, top + h);
+            g.drawString(String.valueOf(max), 5, top + 10);
+            g.drawString("0", 5, top + h);
+            if (size > 0) {
+                g.drawString("step " + stats.step(size - 1), left + w - 60, top + h + 20);
+            }
+            //long games have more turns than pixels, plot one point per pixel column
+            int points = Math.min(size, w);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            for (int a = 0; a < stats.agentCount(); a++) {
+                g2.setColor(a < agents.length ? agents[a].getColor() : Color.BLACK);
+                int px = -1;
+                int py = -1;
+                for (int p = 0; p < points; p++) {
+                    int r = points == 1 ? 0 : (int) ((long) p * (size - 1) / (points - 1));
+                    int x = left + (points == 1 ? 0 : (int) ((long) p * w / (points - 1)));
+                    int y = top + h - (int) (stats.get(r, a, c) * h / max);
+                    if (px >= 0) {
+                        g2.drawLine(px, py, x, y);
+                    }
+                    px = x;
+                    py = y;
+                }
+                g2.drawString(stats.agent(a), left + 10, top + 15 + 15 * a);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+public class TerritoryIndex {
+    //Run-length encoding of one snapshot's ring: every maximal stretch of nodes with the same owner is one run
+    //with its owner id (0 unowned, a + 1 for agents[a], as in World_State), start, length and soldier total.
+    //Built in the same pass that copies the ring into the snapshot, so rendering, frontier statistics and
+    //victory checks can work in O(runs) instead of O(nodes). Runs follow node order and are not merged across
+    //the end of the ring; see wrapsAround(). Colors are only looked up from the id when something is drawn.
+    private int size;
+    private byte[] owners;
+    private int[] starts;
+    private int[] lengths;
+    private long[] sums;
+    private int nodes;
+
+    public TerritoryIndex(int expectedRuns) {
+        int cap = Math.max(expectedRuns, 4);
+        this.owners = new byte[cap];
+        this.starts = new int[cap];
+        this.lengths = new int[cap];
+        this.sums = new long[cap];
+    }
+
+    //Appends the next length nodes of the ring, all owned by owner and holding sum soldiers between them.
+    //Only used while the snapshot is being built.
+    void addRun(int owner, int length, long sum) {
+        if (this.size > 0 && this.owners[this.size - 1] == owner) {
+            this.lengths[this.size - 1] += length;
+            this.sums[this.size - 1] += sum;
+        } else {
+            if (this.size == this.owners.length) {
+                int cap = this.size * 2;
+                this.owners = Arrays.copyOf(this.owners, cap);
+                this.starts = Arrays.copyOf(this.starts, cap);
+                this.lengths = Arrays.copyOf(this.lengths, cap);
+                this.sums = Arrays.copyOf(this.sums, cap);
+            }
+            this.owners[this.size] = (byte) owner;
+            this.starts[this.size] = this.nodes;
+            this.lengths[this.size] = length;
+            this.sums[this.size] = sum;
+            this.size++;
+        }
+        this.nodes += length;
+    }
+
+    public int runCount() {
+        return this.size;
+    }
+
+    public int owner(int run) {
+        return this.owners[run];
+    }
+
+    public int start(int run) {
+        return this.starts[run];
+    }
+
+    public int length(int run) {
+        return this.lengths[run];
+    }
+
+    public long soldiers(int run) {
+        return this.sums[run];
+    }
+
+    //True when the first and last runs have the same owner, i.e. they are really one run across node 0.
+    public boolean wrapsAround() {
+        return this.size > 1 && this.owners[0] == this.owners[this.size - 1];
+    }
+
+    //Number of separate stretches of territory the owner holds, counting a run across node 0 once.
+    public int runsOf(int owner) {
+        int runs = 0;
+        for (int r = 0; r < this.size; r++) {
+            if (this.owners[r] == owner) {
+                runs++;
+            }
+        }
+        if (this.wrapsAround() && this.owners[0] == owner) {
+            runs--;
+        }
+        return runs;
+    }
+
+    public int nodesOf(int owner) {
+        int total = 0;
+        for (int r = 0; r < this.size; r++) {
+            if (this.owners[r] == owner) {
+                total += this.lengths[r];
+            }
+        }
+        return total;
+    }
+
+    public long soldiersOf(int owner) {
+        long total = 0;
+        for (int r = 0; r < this.size; r++) {
+            if (this.owners[r] == owner) {
+                total += this.sums[r];
+            }
+        }
+        return total;
+    }
+
+    //Number of places where two different agents' territory touches directly (unowned gaps don't count).
+    public int contestedBorders() {
+        if (this.size < 2) {
+            return 0;
+        }
+        int borders = 0;
+        int last = this.wrapsAround() ? this.size - 1 : this.size;
+        for (int r = 0; r < last; r++) {
+            byte next = this.owners[(r + 1) % this.size];
+            if (this.owners[r] != 0 && next != 0 && this.owners[r] != next) {
+                borders++;
+            }
+        }
+        return borders;
+    }
+}
@@ -1,6 +1,8 @@
 import java.awt.*;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.function.Predicate;
@@ -8,23 +10,17 @@ import java.util.function.Predicate;
 public class World {
 
     // Nested class Node
+    //A node is just a position on the ring. Its owner and soldiers live in the World's RingStore,
+    //so Node objects are cheap views that can be made whenever one is needed.
     public class Node {
-        private int index;
-        private Node left;
-        private Node right;
-        public int soldiers;
-        public String owner;
-        public int max_soldiers;
+        private final int index;
 
         public Node(int index) {
             this.index = index;
-            this.soldiers = 0;
-            this.owner = "N";
-            this.max_soldiers = 0;
         }
 
         public String toString() {
-            return "(Loc:" +this.index+", Own: " + this.owner + ", Sols:" + this.soldiers + ")";
+            return "(Loc:" +this.index+", Own: " + this.getOwner() + ", Sols:" + this.getSoldiers() + ")";
         }
 
         public int getIndex() {
@@ -32,79 +28,74 @@ public class World {
         }
 
         public int getSoldiers() {
-            return soldiers;
+            return store.soldiers(this.index);
         }
 
         public void setSoldiers(int soldiers) {
-            this.soldiers = soldiers;
-            if (this.soldiers == 0) {
-                this.setOwner("N");
+            int oldId = store.owner(this.index);
+            int oldSoldiers = this.getSoldiers();
+            this.put(owner_names[oldId], soldiers);
+            nodeChanged(this, oldId, oldSoldiers);
+        }
+
+        private void put(String owner, int soldiers) {
+            if (soldiers == 0) {
+                owner = "N";
             }
             //delete excess soldiers here.
-            if (this.soldiers > this.max_soldiers) {
-                this.soldiers = this.max_soldiers;
+            if (soldiers > max_soldiers) {
+                soldiers = max_soldiers;
             }
+            store.set(this.index, soldiers, ownerId(owner));
         }
 
         public void addSoldiers(Agent_Details agent, int additional_soldiers) {
             //at this stage we assume the move is legal
-            
+            int oldId = store.owner(this.index);
+            String oldOwner = owner_names[oldId];
+            int oldSoldiers = this.getSoldiers();
             String agent_name = agent.locname;
-            if (this.owner.equals("N") | this.owner.equals(agent_name)) {
-                this.owner = agent_name;
-                this.setSoldiers(this.soldiers + additional_soldiers);
+            if (oldOwner.equals("N") | oldOwner.equals(agent_name)) {
+                this.put(agent_name, oldSoldiers + additional_soldiers);
             } else {
-                if (this.soldiers >= additional_soldiers) {
-                    this.setSoldiers(this.soldiers - additional_soldiers);
+                if (oldSoldiers >= additional_soldiers) {
+                    this.put(oldOwner, oldSoldiers - additional_soldiers);
                 } else {
-                    this.owner = agent_name;
-                    this.setSoldiers(additional_soldiers -  this.soldiers);
+                    this.put(agent_name, additional_soldiers - oldSoldiers);
                 }
             }
+            nodeChanged(this, oldId, oldSoldiers);
         }
 
         public String getOwner() {
-            return owner;
+            return owner_names[store.owner(this.index)];
         }
 
         public void setOwner(String owner) {
-            this.owner = owner;
+            int oldId = store.owner(this.index);
+            store.set(this.index, this.getSoldiers(), ownerId(owner));
+            nodeChanged(this, oldId, this.getSoldiers());
         }
 
         public Node getLeft() {
-            return left;
-        }
-
-        public void setLeft(Node left) {
-            this.left = left;
+            return nodes.get(this.index == 0 ? numNodes - 1 : this.index - 1);
         }
 
         public Node getRight() {
-            return right;
-        }
-
-        public void setRight(Node right) {
-            this.right = right;
+            return nodes.get(this.index == numNodes - 1 ? 0 : this.index + 1);
         }
 
         public int visible_in_range(String agent_name, int range) {
             //In future this must search up to range
-            if (agent_name.equals(this.owner)) {return 1;}
-            if (range == 1) {
-                if (this.left.owner.equals(agent_name) | this.right.owner.equals(agent_name)) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            Node myLeft = this.left;
-            Node myRight = this.right;
+            if (agent_name.equals(this.getOwner())) {return 1;}
+            int left = this.index;
+            int right = this.index;
             for (int x = 1; x <= range; x++) {
-                if (myLeft.owner.equals(agent_name) | myRight.owner.equals(agent_name)) {
+                left = left == 0 ? numNodes - 1 : left - 1;
+                right = right == numNodes - 1 ? 0 : right + 1;
+                if (ownerAt(left).equals(agent_name) | ownerAt(right).equals(agent_name)) {
                     return 1;
                 }
-                myLeft = myLeft.left;
-                myRight = myRight.right;
             }
             return 0;
         }
@@ -112,8 +103,10 @@ public class World {
 
     public record Node_State(int count, String owner) {}
 
-    private Node head;
-    public List<Node> nodes;
+    private RingStore store;
+    private String[] owner_names; //owner id -> name, 0 is "N" and a + 1 is agents[a]
+    private HashMap<String, Integer> owner_index;
+    public List<Node> nodes; //views over store, made on demand
     public int numNodes;
 
     public int max_soldiers;
@@ -124,31 +117,31 @@ public class World {
     public HashMap<String, Integer> perspectives;
 
     public HashMap<String, Agent_Details> agentLookup;
+
+    public MatchStats stats; //per-turn territory statistics, kept up to date on every node change when set
+    public long hash; //Zobrist-style hash of every node's (index, owner, soldiers), kept up to date on every node change
+    private BitSet[] owned; //nodes of each owner id, built on first use and then kept up to date on every node change
     
     public World(int numNodes, int max_soldiers, int starting_soldiers, int visability_range, Agent_Details[] agents, HashMap<String, Agent_Details> agentLookup) {
-        Node[] nodes_tmp = new Node[numNodes];
         this.max_soldiers = max_soldiers;
         this.visability_range = visability_range;
         this.perspectives = new HashMap<>();
         this.numNodes = numNodes;
+        this.agents = agents;
 
         this.agentLookup = agentLookup;
 
-        // Create nodes and store them in the array
-        for (int i = 0; i < numNodes; i++) {
-            nodes_tmp[i] = new Node(i);
+        this.owner_names = new String[agents.length + 1];
+        this.owner_index = new HashMap<>();
+        this.owner_names[0] = "N";
+        this.owner_index.put("N", 0);
+        for (int a = 0; a < agents.length; a++) {
+            this.owner_names[a + 1] = agents[a].locname;
+            this.owner_index.put(agents[a].locname, a + 1);
         }
-
-        // Link the nodes to form a ring
-        for (int i = 0; i < numNodes; i++) {
-            nodes_tmp[i].setRight(nodes_tmp[(i + 1) % numNodes]);
-            nodes_tmp[i].setLeft(nodes_tmp[(i - 1 + numNodes) % numNodes]);
-            nodes_tmp[i].max_soldiers = this.max_soldiers;
-        }
-
-        // Set the head to the first node
-        head = nodes_tmp[0];
-        nodes = Arrays.asList(nodes_tmp);
+        // Every node starts out empty and unowned
+        this.store = RingStore.forSize(numNodes);
+        this.nodes = this.nodeViews();
 
         double divisions = (double)numNodes/(double)agents.length;
         int place = 0;
@@ -166,6 +159,192 @@ public class World {
 
     }
 
+    //See fork().
+    private World(World from) {
+        this.max_soldiers = from.max_soldiers;
+        this.visability_range = from.visability_range;
+        this.perspectives = from.perspectives;
+        this.numNodes = from.numNodes;
+        this.agents = from.agents;
+        this.agentLookup = from.agentLookup;
+        this.owner_names = from.owner_names;
+        this.owner_index = from.owner_index;
+        this.store = from.store.fork();
+        this.nodes = this.nodeViews();
+        this.hash = from.hash;
+        //owned is left to be rebuilt, most forks never need it
+    }
+
+    //A copy of this world that shares the ring copy-on-write, for trying out moves with the real battle rules.
+    //It costs about numNodes / HeapRingStore.CHUNK pointers plus a chunk for every stretch of the ring it changes
+    //(OffHeapRingStore.SLAB for a ring off the heap). A ring mapped to a file can't be forked.
+    //The fork keeps no statistics. Each fork may be used on its own thread; many threads may fork the
+    //same world at once as long as nothing is changing that world meanwhile.
+    public World fork() {
+        return new World(this);
+    }
+
+    private List<Node> nodeViews() {
+        return new AbstractList<Node>() {
+            public Node get(int i) {
+                if (i < 0 || i >= numNodes) {
+                    throw new IndexOutOfBoundsException("Index out of range");
+                }
+                return new Node(i);
+            }
+            public int size() {
+                return numNodes;
+            }
+        };
+    }
+
+    private int ownerId(String owner) {
+        Integer id = this.owner_index.get(owner);
+        if (id == null) {
+            throw new IllegalArgumentException("Not an agent in this world: " + owner);
+        }
+        return id;
+    }
+
+    //Owner and soldiers of node i without making a Node.
+    public String ownerAt(int i) {
+        return this.owner_names[this.store.owner(i)];
+    }
+
+    //Owner id of node i: 0 unowned, a + 1 for agents[a].
+    public int ownerIdAt(int i) {
+        return this.store.owner(i);
+    }
+
+    public int soldiersAt(int i) {
+        return this.store.soldiers(i);
+    }
+
+    //The whole ring as soldier counts and owner ids (0 unowned, a + 1 for agents[a]).
+    public void copySoldiers(int[] dst) {
+        this.store.copySoldiers(dst);
+    }
+
+    public void copyOwnerIds(byte[] dst) {
+        this.store.copyOwners(dst);
+    }
+
+    //The ring as it is now, for a Checkpoint to write out while play goes on: a copy-on-write fork, or a copy
+    //in direct buffers for a ring mapped to a file, which can't be forked. Neither copies the ring onto the heap.
+    public RingStore frozenRing() {
+        if (this.store instanceof OffHeapRingStore off && off.file() != null) {
+            return off.copyStore();
+        }
+        return this.store.fork();
+    }
+
+    //Whether the ring is kept outside the Java heap, see RingStore.forSize.
+    public boolean offHeap() {
+        return this.store instanceof OffHeapRingStore;
+    }
+
+    //Number of RingStore chunks this world has its own copy of.
+    public int ownedChunks() {
+        return this.store.ownedChunks();
+    }
+
+    //Overwrites the whole ring, used when resuming from a Checkpoint. Owner ids in ring are 0 for unowned or a + 1
+    //for names[a]. Goes around nodeChanged, so it must happen before stats is attached.
+    public void load(RingStore ring, String[] names) {
+        this.hash = 0;
+        this.owned = null;
+        for (int i = 0; i < this.numNodes; i++) {
+            int id = ring.owner(i);
+            String owner = id == 0 ? "N" : names[id - 1];
+            this.store.set(i, ring.soldiers(i), this.ownerId(owner));
+            this.hash ^= zobrist(i, owner, ring.soldiers(i));
+        }
+    }
+
+    private BitSet owned(int id) {
+        if (this.owned == null) {
+            BitSet[] sets = new BitSet[this.owner_names.length];
+            for (int o = 0; o < sets.length; o++) {
+                sets[o] = new BitSet(this.numNodes);
+            }
+            for (int i = 0; i < this.numNodes; i++) {
+                sets[this.store.owner(i)].set(i);
+            }
+            this.owned = sets;
+        }
+        return this.owned[id];
+    }
+
+    //The stretches of agent_name's view that get_perspective would show, as offset, length pairs from the
+    //agent's start, in order and merged. Found from the runs of nodes the agent owns, so the cost goes with
+    //how much of the ring it owns and can see rather than the ring's size.
+    public int[] visibleWindows(String agent_name) {
+        BitSet mine = this.owned(this.ownerId(agent_name));
+        int n = this.numNodes;
+        int start = this.perspectives.get(agent_name);
+        ArrayList<int[]> windows = new ArrayList<>();
+        for (int a = mine.nextSetBit(0); a >= 0; a = mine.nextSetBit(a)) {
+            int b = mine.nextClearBit(a); //run [a, b)
+            long length = (long) b - a + 2L * this.visability_range;
+            if (length >= n) {
+                return new int[] {0, n};
+            }
+            int offset = Math.floorMod(a - this.visability_range - start, n);
+            if (offset + length <= n) {
+                windows.add(new int[] {offset, (int) length});
+            } else {
+                windows.add(new int[] {offset, n - offset});
+                windows.add(new int[] {0, (int) (offset + length - n)});
+            }
+            a = b;
+        }
+        windows.sort((x, y) -> Integer.compare(x[0], y[0]));
+        int[] merged = new int[2 * windows.size()];
+        int k = 0;
+        for (int[] w : windows) {
+            if (k > 0 && w[0] <= merged[k - 2] + merged[k - 1]) {
+                merged[k - 1] = Math.max(merged[k - 1], w[0] + w[1] - merged[k - 2]);
+            } else {
+                merged[k] = w[0];
+                merged[k + 1] = w[1];
+                k += 2;
+            }
+        }
+        return Arrays.copyOf(merged, k);
+    }
+
+    //The hash is the XOR of one key per node. An empty node's key is 0, so a new ring starts at hash 0.
+    public static long zobrist(int node, String owner, int soldiers) {
+        if (soldiers == 0 && owner.equals("N")) {
+            return 0;
+        }
+        //splitmix64 finalizer over the three fields, so no table the size of the ring times max_soldiers is needed
+        long z = node * 0x9E3779B97F4A7C15L + owner.hashCode() * 0xC2B2AE3D27D4EB4FL + soldiers * 0x165667B19E3779F9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    //Every change to a node's owner or soldiers ends up here, with the node already holding its new values.
+    private void nodeChanged(Node node, int oldId, int oldSoldiers) {
+        int id = this.store.owner(node.index);
+        if (this.owned != null && oldId != id) {
+            this.owned[oldId].clear(node.index);
+            this.owned[id].set(node.index);
+        }
+        this.hash ^= zobrist(node.index, this.owner_names[oldId], oldSoldiers) ^ zobrist(node.index, this.owner_names[id], node.getSoldiers());
+        if (this.stats != null) {
+            this.stats.nodeChanged(this, node.index, oldId, oldSoldiers);
+        }
+    }
+
+    //A fight in resolve that one side won. Fights that cancel out are not counted for either side.
+    private void fought(Node winner, Node loser) {
+        if (this.stats != null) {
+            this.stats.fight(this.store.owner(winner.index), this.store.owner(loser.index));
+        }
+    }
+
     public void resolve(int direction, int rstart) {
         /* 
         int start = (int) this.numNodes/4; //in future this will be randomized or at least vary
@@ -184,38 +363,39 @@ public class World {
         if (direction == 1) {
             //right resolve (counterclockwise)
         for (int i = start; i < start + numNodes - 1; i++) {
+            //straight to the next pair of nodes owned by two agents, every other pair is skipped over
+            i = this.store.nextContested(i, start + numNodes - 1);
+            if (i >= start + numNodes - 1) {
+                break;
+            }
             Node node  = nodes.get(i%numNodes);
-            if (node.getOwner().equals(node.getRight().getOwner()) | node.getOwner().equals("N") | (node.getRight().getOwner().equals("N"))) {
-                    continue;
-                } else {
-                    int skip = 0;
-                    if (i == start + numNodes - 2) {
-                        //just before the border so no triple battles
-                        skip = this.fight_right(node, true);
-                    } else {
-                        skip = this.fight_right(node, false);
-                    }
-                    i = i + skip;
-                }
+            int skip = 0;
+            if (i == start + numNodes - 2) {
+                //just before the border so no triple battles
+                skip = this.fight_right(node, true);
+            } else {
+                skip = this.fight_right(node, false);
+            }
+            i = i + skip;
             }
         } else {
             //left resolve
             for (int i = start; i > 1 - (numNodes-start); i--) {
                 //System.out.println((numNodes+i)%numNodes);
+                i = this.store.prevContested(i, 1 - (numNodes-start));
+                if (i <= 1 - (numNodes-start)) {
+                    break;
+                }
                 Node node  = nodes.get((numNodes+i)%numNodes);
-                if (node.getOwner().equals(node.getLeft().getOwner()) | node.getOwner().equals("N") | (node.getLeft().getOwner().equals("N"))) {
-                    continue;
+                int skip = 0;
+                if (i == 2 - (numNodes-start)) {
+                    //just before the border so no triple battles
+                    skip = this.fight_left(node, true);
                 } else {
-                    int skip = 0;
-                    if (i == 2 - (numNodes-start)) {
-                        //just before the border so no triple battles
-                        skip = this.fight_left(node, true);
-                    } else {
-                        skip = this.fight_left(node, false);
-                    }
-                    //int skip = this.fight_left(node);
-                    i = i + skip;
+                    skip = this.fight_left(node, false);
                 }
+                //int skip = this.fight_left(node);
+                i = i + skip;
             }
         }
     }
@@ -235,6 +415,7 @@ public class World {
             if (lnode.getSoldiers() > node.getSoldiers() + llnode.getSoldiers()) {
                 //center node (rnode) owns both sides
                 //just takes ownership, doesn't rearrange anything
+                this.fought(lnode, node);
                 node.setOwner(lnode.getOwner());
                 llnode.setOwner(lnode.getOwner());
                 return -2;
@@ -242,6 +423,7 @@ public class World {
             if (lnode.getSoldiers() < node.getSoldiers() + llnode.getSoldiers()) {
                 //center node (rnode) owns both sides
                 //just takes ownership, doesn't rearrange anything
+                this.fought(node, lnode);
                 lnode.setOwner(node.getOwner());
                 return -2;
             }
@@ -255,12 +437,14 @@ public class World {
         }
         if (lnode.getSoldiers() < node.getSoldiers()) {
             //soldiers of rnode are absorbed into node.
+            this.fought(node, lnode);
             node.addSoldiers(this.agentLookup.get(node.getOwner()), lnode.getSoldiers());
             lnode.setSoldiers(0);
             return -1;
         }
         if (lnode.getSoldiers() > node.getSoldiers()) {
             //soldiers of rnode are absorbed into node.
+            this.fought(lnode, node);
             lnode.addSoldiers(this.agentLookup.get(lnode.getOwner()), node.getSoldiers());
             node.setSoldiers(0);
             return -1;
@@ -286,6 +470,7 @@ public class World {
             if (rnode.getSoldiers() > node.getSoldiers() + rrnode.getSoldiers()) {
                 //center node (rnode) owns both sides
                 //just takes ownership, doesn't rearrange anything
+                this.fought(rnode, node);
                 node.setOwner(rnode.getOwner());
                 rrnode.setOwner(rnode.getOwner());
                 return 2;
@@ -293,6 +478,7 @@ public class World {
             if (rnode.getSoldiers() < node.getSoldiers() + rrnode.getSoldiers()) {
                 //center node (rnode) owns both sides
                 //just takes ownership, doesn't rearrange anything
+                this.fought(node, rnode);
                 rnode.setOwner(node.getOwner());
                 return 2;
             }
@@ -306,12 +492,14 @@ public class World {
         }
         if (rnode.getSoldiers() < node.getSoldiers()) {
             //soldiers of rnode are absorbed into node.
+            this.fought(node, rnode);
             node.addSoldiers(this.agentLookup.get(node.getOwner()), rnode.getSoldiers());
             rnode.setSoldiers(0);
             return 1;
         }
         if (rnode.getSoldiers() > node.getSoldiers()) {
             //soldiers of rnode are absorbed into node.
+            this.fought(rnode, node);
             rnode.addSoldiers(this.agentLookup.get(rnode.getOwner()), node.getSoldiers());
             node.setSoldiers(0);
             return 1;
@@ -326,11 +514,11 @@ public class World {
         List<Node_State> results = new ArrayList<>();
         for (int i : vis) {
             if (i == 1) {
-                if (!this.nodes.get(c%this.numNodes).owner.equals(agent.locname)) {
-                Node_State ns = new Node_State(this.nodes.get(c%this.numNodes).soldiers, this.nodes.get(c%this.numNodes).owner);
+                if (!this.ownerAt(c%this.numNodes).equals(agent.locname)) {
+                Node_State ns = new Node_State(this.soldiersAt(c%this.numNodes), this.ownerAt(c%this.numNodes));
                 results.add(ns);
                 } else {
-                    Node_State ns = new Node_State(this.nodes.get(c%this.numNodes).soldiers, "Y");
+                    Node_State ns = new Node_State(this.soldiersAt(c%this.numNodes), "Y");
                 results.add(ns);
                 }
             } else { //add else if node indexed by a move loc BUT make this a separate function
@@ -368,17 +556,18 @@ public class World {
     }
 
     public void printNodes() {
-        if (head == null) {
-            System.out.println("Empty world");
-            return;
-        }
+        System.out.println(this.nodesToString());
+    }
 
-        Node current = head;
-        do {
-            System.out.print(current.getIndex() + ": " + current.getOwner() + ", " + current.getSoldiers() + "  ");
-            current = current.getRight();
-        } while (current != head);
-        System.out.println();
+    public String nodesToString() {
+        if (this.numNodes == 0) {
+            return "Empty world";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.numNodes; i++) {
+            sb.append(i).append(": ").append(this.ownerAt(i)).append(", ").append(this.soldiersAt(i)).append("  ");
+        }
+        return sb.toString();
     }
 
     public Node getNode(int index) {
@@ -0,0 +1,101 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorRingScan extends RingScan {
+    //RingScan with the Vector API, as wide as the CPU allows. Kept out of the main folder because it only
+    //compiles with the incubator module; build it after everything else and run with the module added:
+    //  javac --add-modules jdk.incubator.vector -cp . -d . simd/VectorRingScan.java
+    //  java --add-modules jdk.incubator.vector ...
+    //RingScan.SCAN picks it up by itself. Each loop finishes its last partial vector with RingScan's loop.
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    //bytes one to a lane of INTS, to widen owners next to their soldier counts
+    private static final VectorSpecies<Byte> INT_BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * 8));
+
+    public String name() {
+        return "vector " + INTS.vectorBitSize() + " bit";
+    }
+
+    public int nextContested(byte[] o, int from, int to) {
+        int lanes = BYTES.length();
+        int j = from;
+        for (; j + lanes <= to; j += lanes) {
+            ByteVector a = ByteVector.fromArray(BYTES, o, j);
+            ByteVector b = ByteVector.fromArray(BYTES, o, j + 1);
+            VectorMask<Byte> m = a.compare(VectorOperators.NE, b)
+                    .and(a.compare(VectorOperators.NE, (byte) 0))
+                    .and(b.compare(VectorOperators.NE, (byte) 0));
+            if (m.anyTrue()) {
+                return j + m.firstTrue();
+            }
+        }
+        return super.nextContested(o, j, to);
+    }
+
+    public int prevContested(byte[] o, int from, int low) {
+        int lanes = BYTES.length();
+        int j = from;
+        //the block [j - lanes + 1, j]
+        for (; j - lanes >= low; j -= lanes) {
+            ByteVector a = ByteVector.fromArray(BYTES, o, j - lanes + 1);
+            ByteVector b = ByteVector.fromArray(BYTES, o, j - lanes + 2);
+            VectorMask<Byte> m = a.compare(VectorOperators.NE, b)
+                    .and(a.compare(VectorOperators.NE, (byte) 0))
+                    .and(b.compare(VectorOperators.NE, (byte) 0));
+            if (m.anyTrue()) {
+                return j - lanes + 1 + m.lastTrue();
+            }
+        }
+        return super.prevContested(o, j, low);
+    }
+
+    public int nextChange(byte[] o, int from, int to) {
+        int lanes = BYTES.length();
+        int j = from;
+        for (; j + lanes <= to; j += lanes) {
+            VectorMask<Byte> m = ByteVector.fromArray(BYTES, o, j).compare(VectorOperators.NE, ByteVector.fromArray(BYTES, o, j + 1));
+            if (m.anyTrue()) {
+                return j + m.firstTrue();
+            }
+        }
+        return super.nextChange(o, j, to);
+    }
+
+    public long sum(int[] s, int from, int to) {
+        //widened to longs half a vector at a time, a run can hold more than an int's worth of soldiers
+        int lanes = INTS.length();
+        LongVector acc = LongVector.zero(LONGS);
+        int i = from;
+        for (; i + lanes <= to; i += lanes) {
+            IntVector v = IntVector.fromArray(INTS, s, i);
+            acc = acc.add(v.convertShape(VectorOperators.I2L, LONGS, 0))
+                    .add(v.convertShape(VectorOperators.I2L, LONGS, 1));
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + super.sum(s, i, to);
+    }
+
+    public void totals(int[] s, byte[] o, int from, int to, int[] sums, int[] counts) {
+        //one pass per owner: with the accumulators in an array, every add is a store the JIT can't keep in a register
+        int lanes = INTS.length();
+        int end = from + (to - from) / lanes * lanes;
+        for (int k = 0; k < sums.length; k++) {
+            IntVector acc = IntVector.zero(INTS);
+            int count = 0;
+            for (int i = from; i < end; i += lanes) {
+                IntVector owner = (IntVector) ByteVector.fromArray(INT_BYTES, o, i).convertShape(VectorOperators.B2I, INTS, 0);
+                VectorMask<Integer> mine = owner.compare(VectorOperators.EQ, k);
+                acc = acc.add(IntVector.fromArray(INTS, s, i), mine);
+                count += mine.trueCount();
+            }
+            sums[k] += acc.reduceLanes(VectorOperators.ADD);
+            counts[k] += count;
+        }
+        super.totals(s, o, end, to, sums, counts);
+    }
+}